@@ -0,0 +1,130 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * 不依赖服务端实现的物品替身
+ * 用一段定长的字节负载代替物品组件（NBT），比较、克隆和序列化的开销随负载大小变化，
+ * 以此模拟普通物品、附魔物品和装满物品的潜影盒之间的差别
+ */
+final class BenchItemStack extends ItemStack {
+
+    /**
+     * 物品复杂度，负载大小取自对应物品序列化后的典型长度
+     */
+    enum Complexity {
+        PLAIN(Material.STONE, 24),
+        ENCHANTED(Material.DIAMOND_SWORD, 320),
+        SHULKER(Material.SHULKER_BOX, 27 * 180);
+
+        final Material type;
+        final int payloadBytes;
+
+        Complexity(Material type, int payloadBytes) {
+            this.type = type;
+            this.payloadBytes = payloadBytes;
+        }
+    }
+
+    private final Material type;
+    private int amount;
+    private final byte[] payload;
+
+    private BenchItemStack(Material type, int amount, byte[] payload) {
+        this.type = type;
+        this.amount = amount;
+        this.payload = payload;
+    }
+
+    /**
+     * 按复杂度生成物品，相同种子得到内容相同的物品
+     */
+    static BenchItemStack create(Complexity complexity, int amount, long seed) {
+        byte[] payload = new byte[complexity.payloadBytes];
+        new SplittableRandom(seed).nextBytes(payload);
+        return new BenchItemStack(complexity.type, amount, payload);
+    }
+
+    /**
+     * 数量不同的同种物品，用于在两次操作之间制造槽位变化
+     */
+    BenchItemStack withAmount(int amount) {
+        return new BenchItemStack(type, amount, payload.clone());
+    }
+
+    @Override
+    public Material getType() {
+        return type;
+    }
+
+    @Override
+    public int getAmount() {
+        return amount;
+    }
+
+    @Override
+    public void setAmount(int amount) {
+        this.amount = amount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return amount <= 0;
+    }
+
+    @Override
+    public boolean isSimilar(ItemStack stack) {
+        if (stack == this) return true;
+        if (!(stack instanceof BenchItemStack other)) return false;
+        return type == other.type && Arrays.equals(payload, other.payload);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (!(obj instanceof BenchItemStack other)) return false;
+        return amount == other.amount && isSimilar(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * type.hashCode() + amount) + Arrays.hashCode(payload);
+    }
+
+    @Override
+    public BenchItemStack clone() {
+        // 与服务端一致，克隆会复制全部组件
+        return new BenchItemStack(type, amount, payload.clone());
+    }
+
+    @Override
+    public String toString() {
+        return "BenchItemStack{" + type + " x " + amount + ", " + payload.length + " bytes}";
+    }
+
+    byte[] encode() {
+        byte[] name = type.name().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(2 + name.length + 4 + payload.length);
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+        buffer.putInt(amount);
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    static BenchItemStack decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte[] name = new byte[buffer.getShort()];
+        buffer.get(name);
+        int amount = buffer.getInt();
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        return new BenchItemStack(Material.valueOf(new String(name, StandardCharsets.UTF_8)), amount, payload);
+    }
+}
@@ -0,0 +1,32 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * 各基准共用的测试数据
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * 按填充比例生成组背包内容，槽位 0 总是有物品，供基准在两次操作之间改变
+     */
+    static ItemStack[] contents(BenchItemStack.Complexity complexity, double fillRatio, long seed) {
+        ItemStack[] contents = new ItemStack[GroupState.SLOT_COUNT];
+        int filled = Math.max(1, (int) Math.round(GroupState.SLOT_COUNT * fillRatio));
+        for (int slot = 0; slot < filled; slot++) {
+            contents[slot] = BenchItemStack.create(complexity, 1 + slot % 64, seed * GroupState.SLOT_COUNT + slot);
+        }
+        return contents;
+    }
+
+    /**
+     * 槽位 0 的两个交替取值，数量不同、组件相同
+     */
+    static ItemStack[] alternates(ItemStack[] contents) {
+        BenchItemStack base = (BenchItemStack) contents[0];
+        return new ItemStack[]{base.withAmount(2), base.withAmount(3)};
+    }
+}
@@ -0,0 +1,153 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * 持久化路径：saveData 交给IO线程的写入（组文件与所属关系索引），loadData 启动时的扫描，
+ * 以及 loadGroup 在成员上线时按需读入单个组
+ * 数据写在临时目录中，写入包含与插件相同的落盘调用
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    private static final Logger LOGGER = Logger.getLogger("SyncInventoryBench");
+
+    @Param({"32"})
+    int groupCount;
+
+    @Param({"2", "8", "32"})
+    int groupSize;
+
+    @Param({"0.25", "1.0"})
+    double fillRatio;
+
+    @Param({"PLAIN", "ENCHANTED", "SHULKER"})
+    BenchItemStack.Complexity complexity;
+
+    private Path directory;
+    private MappedGroupStore groupStore;
+    private MembershipIndex membershipIndex;
+
+    private String[] groupNames;
+    private GroupSnapshot[] snapshots;
+    private ItemStack[][] alternates;
+    private UUID[] players;
+    private long journalSeq;
+    private int operation;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StandIns.installServer();
+        directory = Files.createTempDirectory("syncinv-bench");
+        groupStore = MappedGroupStore.open(directory.resolve("groups"), LOGGER);
+        membershipIndex = MembershipIndex.open(directory.resolve("members.dat"), LOGGER);
+
+        groupNames = new String[groupCount];
+        snapshots = new GroupSnapshot[groupCount];
+        alternates = new ItemStack[groupCount][];
+        players = new UUID[groupCount * groupSize];
+
+        Map<String, GroupSnapshot> contents = new HashMap<>();
+        Map<UUID, String> membership = new HashMap<>();
+        for (int group = 0; group < groupCount; group++) {
+            ItemStack[] items = Fixtures.contents(complexity, fillRatio, group);
+            groupNames[group] = "group_" + group;
+            snapshots[group] = new GroupSnapshot(0L, items);
+            alternates[group] = Fixtures.alternates(items);
+            contents.put(groupNames[group], snapshots[group]);
+
+            for (int member = 0; member < groupSize; member++) {
+                UUID playerId = new UUID(group, member);
+                players[group * groupSize + member] = playerId;
+                membership.put(playerId, groupNames[group]);
+            }
+        }
+        groupStore.write(contents);
+        membershipIndex.write(membership, journalSeq);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        groupStore.close();
+        membershipIndex.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * 所有组各有一个槽位变化、一名玩家换组，写入并落盘
+     */
+    @Benchmark
+    public void saveData() throws IOException {
+        int turn = operation++;
+        Map<String, GroupSnapshot> dirtyContents = new HashMap<>(groupCount);
+        for (int group = 0; group < groupCount; group++) {
+            GroupSnapshot base = snapshots[group];
+            ItemStack[] next = base.toArray();
+            next[0] = alternates[group][turn & 1];
+            snapshots[group] = new GroupSnapshot(base.getVersion() + 1, next);
+            dirtyContents.put(groupNames[group], snapshots[group]);
+        }
+
+        Map<UUID, String> dirtyMembership = new HashMap<>(1);
+        dirtyMembership.put(players[turn % players.length], groupNames[turn % groupCount]);
+
+        groupStore.write(dirtyContents);
+        membershipIndex.write(dirtyMembership, ++journalSeq);
+    }
+
+    /**
+     * 打开存储、登记全部组并读出玩家，与插件启动时一样不读取组内容
+     */
+    @Benchmark
+    public void loadData(Blackhole blackhole) throws IOException {
+        try (MappedGroupStore store = MappedGroupStore.open(directory.resolve("groups"), LOGGER);
+             MembershipIndex index = MembershipIndex.open(directory.resolve("members.dat"), LOGGER)) {
+            for (String groupName : store.groupNames()) {
+                blackhole.consume(GroupState.unloaded(groupName));
+            }
+            blackhole.consume(index.readAll());
+        }
+    }
+
+    /**
+     * 首个成员上线时读入一个组并在回收后释放映射
+     */
+    @Benchmark
+    public void loadGroup(Blackhole blackhole) throws IOException {
+        String groupName = groupNames[operation++ % groupCount];
+        blackhole.consume(groupStore.read(groupName));
+        groupStore.release(groupName);
+    }
+}
@@ -0,0 +1,290 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * 进程内的 Bukkit 替身：玩家、背包、调度器和服务端
+ * 玩家与背包用动态代理实现，只支持同步路径实际调用的方法，其余方法直接抛出异常，
+ * 插件开始调用新的方法时基准会立即失败而不是悄悄测到空实现
+ */
+final class StandIns {
+
+    private static final int INVENTORY_SIZE = 41;
+
+    private StandIns() {
+    }
+
+    /**
+     * 安装服务端替身，物品序列化交给 BenchItemStack，只需调用一次
+     */
+    static synchronized void installServer() {
+        if (Bukkit.getServer() != null) return;
+
+        Logger logger = Logger.getLogger("SyncInventoryBench");
+        UnsafeValues unsafe = proxy(UnsafeValues.class, (method, args) -> switch (method.getName()) {
+            case "serializeItem" -> ((BenchItemStack) args[0]).encode();
+            case "deserializeItem" -> BenchItemStack.decode((byte[]) args[0]);
+            default -> defaultValue(method);
+        });
+        Server server = proxy(Server.class, (method, args) -> switch (method.getName()) {
+            case "getUnsafe" -> unsafe;
+            case "getLogger" -> logger;
+            case "getName", "getVersion", "getBukkitVersion" -> "StandIn";
+            default -> defaultValue(method);
+        });
+        Bukkit.setServer(server);
+    }
+
+    /**
+     * 背包替身：getItem 直接返回槽位中的物品，setItem/setContents 与服务端一样复制物品
+     */
+    static PlayerInventory inventory() {
+        ItemStack[] slots = new ItemStack[INVENTORY_SIZE];
+        // 直接使用 InventoryHandler，put 需要从代理取回它
+        return PlayerInventory.class.cast(Proxy.newProxyInstance(StandIns.class.getClassLoader(),
+                new Class<?>[]{PlayerInventory.class}, new InventoryHandler(slots)));
+    }
+
+    /**
+     * 绕过 setItem 的复制直接放入物品，供基准在两次操作之间制造变化
+     */
+    static void put(PlayerInventory inventory, int slot, ItemStack item) {
+        ((InventoryHandler) Proxy.getInvocationHandler(inventory)).slots[slot] = item;
+    }
+
+    static Player player(UUID playerId, PlayerInventory inventory) {
+        String name = "bench-" + playerId.toString().substring(0, 8);
+        return strictProxy(Player.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getUniqueId" -> playerId;
+            case "getName" -> name;
+            case "getInventory" -> inventory;
+            case "isOnline", "isValid" -> true;
+            case "updateInventory" -> null;
+            default -> unsupported(method);
+        });
+    }
+
+    /**
+     * 在调用线程上立即执行所有任务的调度器，测得的是任务本身的开销
+     */
+    static PlatformScheduler immediateScheduler() {
+        return new PlatformScheduler() {
+            @Override
+            public boolean isFolia() {
+                return false;
+            }
+
+            @Override
+            public void execute(Entity entity, Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public void runLater(Entity entity, Runnable task, long delay) {
+                task.run();
+            }
+
+            @Override
+            public <T> void executeAll(Iterable<T> targets, Function<? super T, ? extends Entity> entityOf, Consumer<? super T> action) {
+                for (T target : targets) {
+                    action.accept(target);
+                }
+            }
+
+            @Override
+            public void runGlobalLater(Runnable task, long delay) {
+                task.run();
+            }
+
+            @Override
+            public Task runGlobalTimer(Runnable task, long delay, long period) {
+                return () -> {
+                };
+            }
+
+            @Override
+            public void runAsync(Runnable task) {
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * 写入空设备的日志，每次提交在调用线程上完成编码和写入
+     */
+    static ChangeJournal nullJournal() {
+        boolean windows = System.getProperty("os.name", "").startsWith("Windows");
+        return new ChangeJournal(Path.of(windows ? "NUL" : "/dev/null"), Runnable::run,
+                Logger.getLogger("SyncInventoryBench"), Long.MAX_VALUE, () -> {
+        });
+    }
+
+    /**
+     * 不经过插件类加载器创建插件实例
+     * JavaPlugin 的构造方法要求由服务端加载，这里只初始化同步路径用到的字段，
+     * 集合类型的字段按声明类型补上空的并发集合，插件自己的组件用无参构造创建
+     */
+    static SyncInventory plugin(PlatformScheduler scheduler, ChangeJournal journal) {
+        try {
+            Field unsafeField = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            sun.misc.Unsafe unsafe = (sun.misc.Unsafe) unsafeField.get(null);
+            SyncInventory plugin = (SyncInventory) unsafe.allocateInstance(SyncInventory.class);
+
+            for (Field field : SyncInventory.class.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) continue;
+                field.setAccessible(true);
+                if (field.get(plugin) != null) continue;
+
+                Class<?> type = field.getType();
+                Object value = null;
+                if (type == Map.class) {
+                    value = new ConcurrentHashMap<>();
+                } else if (type == Set.class) {
+                    value = ConcurrentHashMap.newKeySet();
+                } else if (type == PlatformScheduler.class) {
+                    value = scheduler;
+                } else if (type == ChangeJournal.class) {
+                    value = journal;
+                } else if (type == GroupSyncScheduler.class) {
+                    value = new GroupSyncScheduler(plugin);
+                } else if (Modifier.isFinal(field.getModifiers())
+                        && type.getPackageName().equals(SyncInventory.class.getPackageName())) {
+                    // 声明时即创建的插件组件（策略表、统计等）用无参构造创建
+                    value = type.getDeclaredConstructor().newInstance();
+                }
+                if (value != null) {
+                    field.set(plugin, value);
+                }
+            }
+            return plugin;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create stand-in plugin", e);
+        }
+    }
+
+    private static final class InventoryHandler implements InvocationHandler {
+
+        final ItemStack[] slots;
+
+        InventoryHandler(ItemStack[] slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getSize":
+                    return slots.length;
+                case "getItem":
+                    if (args[0] instanceof Integer slot) {
+                        return slots[slot];
+                    }
+                    break;
+                case "setItem":
+                    if (args[0] instanceof Integer slot) {
+                        slots[slot] = copy((ItemStack) args[1]);
+                        return null;
+                    }
+                    break;
+                case "getContents":
+                case "getStorageContents": {
+                    ItemStack[] contents = new ItemStack[method.getName().equals("getContents") ? slots.length : 36];
+                    for (int slot = 0; slot < contents.length; slot++) {
+                        contents[slot] = copy(slots[slot]);
+                    }
+                    return contents;
+                }
+                case "setContents":
+                case "setStorageContents": {
+                    ItemStack[] contents = (ItemStack[]) args[0];
+                    for (int slot = 0; slot < slots.length; slot++) {
+                        slots[slot] = slot < contents.length ? copy(contents[slot]) : null;
+                    }
+                    return null;
+                }
+                case "clear":
+                    if (args == null || args.length == 0) {
+                        Arrays.fill(slots, null);
+                        return null;
+                    }
+                    break;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "StandInPlayerInventory";
+                default:
+                    break;
+            }
+            return unsupported(method);
+        }
+
+        private static ItemStack copy(ItemStack item) {
+            return item == null ? null : item.clone();
+        }
+    }
+
+    private interface Handler {
+        Object handle(Method method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(StandIns.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "StandIn" + type.getSimpleName();
+                    default -> handler.handle(method, args);
+                }));
+    }
+
+    private static <T> T strictProxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StandIns.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "StandIn" + type.getSimpleName();
+                    default -> handler.invoke(proxy, method, args);
+                }));
+    }
+
+    private static Object unsupported(Method method) {
+        throw new UnsupportedOperationException("Stand-in does not support " + method);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0F;
+        if (type == double.class) return 0D;
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        return 0;
+    }
+}
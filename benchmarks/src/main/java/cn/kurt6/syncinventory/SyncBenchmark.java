@@ -0,0 +1,108 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同步热路径：一名成员背包变化后推送到组并分发给其他成员，以及把组背包拉取到成员
+ * 调度器替身在调用线程上立即执行，分发的开销计入推送
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncBenchmark {
+
+    private static final String GROUP_NAME = "bench";
+
+    @Param({"2", "8", "32"})
+    int groupSize;
+
+    @Param({"0.25", "1.0"})
+    double fillRatio;
+
+    @Param({"PLAIN", "ENCHANTED", "SHULKER"})
+    BenchItemStack.Complexity complexity;
+
+    private SyncInventory plugin;
+    private ChangeJournal journal;
+    private Player source;
+    private PlayerInventory sourceInventory;
+    private Player target;
+    private ItemStack[] alternates;
+    private int operation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        StandIns.installServer();
+        journal = StandIns.nullJournal();
+        plugin = StandIns.plugin(StandIns.immediateScheduler(), journal);
+
+        ItemStack[] contents = Fixtures.contents(complexity, fillRatio, 1L);
+        alternates = Fixtures.alternates(contents);
+        GroupState group = GroupState.load(GROUP_NAME, 0L, contents);
+        plugin.groups.put(GROUP_NAME, group);
+
+        for (int i = 0; i < groupSize; i++) {
+            PlayerInventory inventory = StandIns.inventory();
+            Player player = StandIns.player(new UUID(0L, i), inventory);
+            group.getMembers().add(player.getUniqueId());
+            plugin.openSession(player).bind(group);
+            plugin.syncInventoryToGroup(player, GROUP_NAME);
+
+            if (i == 0) {
+                source = player;
+                sourceInventory = inventory;
+            } else {
+                target = player;
+            }
+        }
+        if (target == null) {
+            target = source;
+        }
+    }
+
+    /**
+     * 改变一个槽位后推送，包含比较、克隆、日志编码和分发
+     */
+    @Benchmark
+    public void syncInventoryFromPlayer() {
+        StandIns.put(sourceInventory, 0, alternates[operation++ & 1]);
+        plugin.syncInventoryFromPlayer(source);
+        journal.commit();
+    }
+
+    /**
+     * 背包没有变化时的推送，逐槽位只比较指纹
+     */
+    @Benchmark
+    public void syncInventoryFromPlayerUnchanged() {
+        plugin.syncInventoryFromPlayer(source);
+    }
+
+    /**
+     * 把整个组背包写入一名成员的背包
+     */
+    @Benchmark
+    public void syncInventoryToGroup() {
+        plugin.syncInventoryToGroup(target, GROUP_NAME);
+    }
+}
@@ -0,0 +1,74 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 单主线程服务器（Bukkit/Spigot/Paper）的调度实现
+ */
+final class BukkitPlatformScheduler implements PlatformScheduler {
+
+    private final Plugin plugin;
+    private final BukkitScheduler scheduler;
+
+    BukkitPlatformScheduler(Plugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = Bukkit.getScheduler();
+    }
+
+    @Override
+    public boolean isFolia() {
+        return false;
+    }
+
+    @Override
+    public void execute(Entity entity, Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            scheduler.runTask(plugin, task);
+        }
+    }
+
+    @Override
+    public void runLater(Entity entity, Runnable task, long delay) {
+        scheduler.runTaskLater(plugin, task, delay);
+    }
+
+    @Override
+    public <T> void executeAll(Iterable<T> targets, Function<? super T, ? extends Entity> entityOf, Consumer<? super T> action) {
+        if (Bukkit.isPrimaryThread()) {
+            for (T target : targets) {
+                action.accept(target);
+            }
+        } else {
+            scheduler.runTask(plugin, () -> {
+                for (T target : targets) {
+                    action.accept(target);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void runGlobalLater(Runnable task, long delay) {
+        scheduler.runTaskLater(plugin, task, delay);
+    }
+
+    @Override
+    public Task runGlobalTimer(Runnable task, long delay, long period) {
+        BukkitTask bukkitTask = scheduler.runTaskTimer(plugin, task, delay, period);
+        return bukkitTask::cancel;
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        scheduler.runTaskAsynchronously(plugin, task);
+    }
+}
@@ -0,0 +1,75 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.inventory.Inventory;
+
+/**
+ * 一次捕获的结果：提交给组背包的增量，以及需要改写为组背包新内容的推送者槽位
+ * 捕获本身不修改玩家背包，写回由调用方在玩家所在线程完成
+ */
+final class CaptureResult {
+
+    static final CaptureResult EMPTY = new CaptureResult(SlotDelta.EMPTY, null, 0L, 0, 0, 0L);
+
+    private final SlotDelta delta;
+    private final GroupSnapshot committed;
+    private final long writeBackSlots;
+    private final int mergedSlots;
+    private final int relocatedItems;
+    private final long deferredSlots;
+
+    CaptureResult(SlotDelta delta, GroupSnapshot committed, long writeBackSlots, int mergedSlots,
+                  int relocatedItems, long deferredSlots) {
+        this.delta = delta;
+        this.committed = committed;
+        this.writeBackSlots = writeBackSlots;
+        this.mergedSlots = mergedSlots;
+        this.relocatedItems = relocatedItems;
+        this.deferredSlots = deferredSlots;
+    }
+
+    /**
+     * 提交的增量，没有提交时为空增量
+     */
+    SlotDelta getDelta() {
+        return delta;
+    }
+
+    /**
+     * 需要写回推送者背包的槽位位图：合并结果与玩家背包不同的槽位，以及放入移位物品的空槽位
+     */
+    long getWriteBackSlots() {
+        return writeBackSlots;
+    }
+
+    /**
+     * 合并结果与玩家背包不同的槽位数
+     */
+    int getMergedSlots() {
+        return mergedSlots;
+    }
+
+    /**
+     * 移到空槽位的物品数：超出最大堆叠的部分，或被其他成员的物品占住槽位的玩家物品
+     */
+    int getRelocatedItems() {
+        return relocatedItems;
+    }
+
+    /**
+     * 移位物品放不下、本次没有合并的槽位位图，玩家保留自己的物品，之后的捕获再合并
+     */
+    long getDeferredSlots() {
+        return deferredSlots;
+    }
+
+    /**
+     * 把写回槽位改写为提交后的内容，只在推送者所在线程调用
+     */
+    void writeBack(Inventory inventory) {
+        for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+            if ((writeBackSlots & (1L << slot)) != 0L) {
+                inventory.setItem(slot, committed.getItem(slot));
+            }
+        }
+    }
+}
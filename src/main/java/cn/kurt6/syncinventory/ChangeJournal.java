@@ -0,0 +1,459 @@
+package cn.kurt6.syncinventory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 预写日志
+ * 每次分发的槽位变化、成员变化和死亡清空都追加为一条带序号的记录，
+ * 每tick由IO线程批量写入并落盘一次。启动时在最近一次保存的数据之上重放，
+ * 保存落盘后丢弃已被覆盖的记录。槽位和清空记录带有组背包版本号，
+ * 不同线程并发提交的同组记录在日志中的顺序可能与版本顺序不同，由重放方按版本排序。
+ * 组背包的记录写入后同时交给监听器（组历史）
+ */
+public class ChangeJournal {
+
+    private static final byte TYPE_SLOTS = 1;
+    private static final byte TYPE_CLEAR = 2;
+    private static final byte TYPE_JOIN = 3;
+    private static final byte TYPE_LEAVE = 4;
+    private static final byte TYPE_CREATE = 5;
+    private static final byte TYPE_DELETE = 6;
+
+    private final Path path;
+    private final Executor ioExecutor;
+    private final Logger logger;
+    private final long compactThreshold;
+    private final Runnable compactionRequest;
+
+    private final Object appendLock = new Object();
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    // 写入失败、等待下一次提交重试的记录，保持原来的顺序排在新记录之前；只在IO线程上修改
+    private final Queue<Entry> unwritten = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean commitQueued = new AtomicBoolean();
+    private final AtomicBoolean compactionRequested = new AtomicBoolean();
+    private long lastSeq;
+
+    // 仅在IO线程上使用
+    private FileChannel channel;
+    private volatile Listener listener;
+
+    /**
+     * 重放时对内存数据执行的操作
+     */
+    public interface Replayer {
+        void applySlots(String groupName, SlotDelta delta);
+
+        void clearGroup(String groupName, long version);
+
+        void join(UUID playerId, String groupName);
+
+        void leave(UUID playerId);
+
+        void createGroup(String groupName);
+
+        void deleteGroup(String groupName);
+    }
+
+    /**
+     * 组背包记录落盘后的回调，在IO线程上按日志顺序调用
+     */
+    public interface Listener {
+        void slotsWritten(String groupName, SlotDelta delta, long timestamp);
+
+        void groupCleared(String groupName, long version, long timestamp);
+
+        void groupCreated(String groupName, long timestamp);
+
+        void groupDeleted(String groupName);
+    }
+
+    private static final class Entry {
+        final long seq;
+        final byte type;
+        final String groupName;
+        final UUID playerId;
+        final SlotDelta delta;
+        final long version;
+        final long timestamp = System.currentTimeMillis();
+
+        Entry(long seq, byte type, String groupName, UUID playerId, SlotDelta delta, long version) {
+            this.seq = seq;
+            this.type = type;
+            this.groupName = groupName;
+            this.playerId = playerId;
+            this.delta = delta;
+            this.version = version;
+        }
+    }
+
+    /**
+     * @param compactThreshold 日志超过该字节数时请求一次保存
+     * @param compactionRequest 请求保存的回调，会在IO线程上调用
+     */
+    public ChangeJournal(Path path, Executor ioExecutor, Logger logger,
+                         long compactThreshold, Runnable compactionRequest) {
+        this.path = path;
+        this.ioExecutor = ioExecutor;
+        this.logger = logger;
+        this.compactThreshold = compactThreshold;
+        this.compactionRequest = compactionRequest;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void appendSlots(String groupName, SlotDelta delta) {
+        append(TYPE_SLOTS, groupName, null, delta, delta.getVersion());
+    }
+
+    /**
+     * @param version 清空后的组背包版本号
+     */
+    public void appendClear(String groupName, long version) {
+        append(TYPE_CLEAR, groupName, null, null, version);
+    }
+
+    public void appendJoin(UUID playerId, String groupName) {
+        append(TYPE_JOIN, groupName, playerId, null, 0L);
+    }
+
+    public void appendLeave(UUID playerId) {
+        append(TYPE_LEAVE, null, playerId, null, 0L);
+    }
+
+    public void appendCreate(String groupName) {
+        append(TYPE_CREATE, groupName, null, null, 0L);
+    }
+
+    public void appendDelete(String groupName) {
+        append(TYPE_DELETE, groupName, null, null, 0L);
+    }
+
+    private void append(byte type, String groupName, UUID playerId, SlotDelta delta, long version) {
+        // 序号分配与入队保持同一顺序
+        synchronized (appendLock) {
+            pending.add(new Entry(++lastSeq, type, groupName, playerId, delta, version));
+        }
+    }
+
+    /**
+     * 最近分配的序号，快照在复制数据之前读取，之后的记录在重放时覆盖快照
+     */
+    public long currentSeq() {
+        synchronized (appendLock) {
+            return lastSeq;
+        }
+    }
+
+    /**
+     * 组提交：每tick调用一次，把期间追加的记录交给IO线程一次写入并落盘
+     */
+    public void commit() {
+        if ((pending.isEmpty() && unwritten.isEmpty()) || !commitQueued.compareAndSet(false, true)) {
+            return;
+        }
+        ioExecutor.execute(this::writePending);
+    }
+
+    /**
+     * 重放序号大于快照序号的记录，返回重放的条数。只在加载阶段调用
+     */
+    public int replay(long snapshotSeq, Replayer replayer) throws IOException {
+        long maxSeq = snapshotSeq;
+        int replayed = 0;
+
+        if (Files.exists(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                byte[] record;
+                while ((record = readRecord(in)) != null) {
+                    DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+                    long seq = data.readLong();
+                    maxSeq = Math.max(maxSeq, seq);
+                    if (seq <= snapshotSeq) continue;
+                    apply(data, replayer);
+                    replayed++;
+                }
+            }
+        }
+
+        synchronized (appendLock) {
+            lastSeq = Math.max(lastSeq, maxSeq);
+        }
+        return replayed;
+    }
+
+    /**
+     * 日志文件是否为空，非空时加载后需要保存一次以截断日志
+     */
+    public boolean isEmpty() throws IOException {
+        return !Files.exists(path) || Files.size(path) == 0;
+    }
+
+    /**
+     * 保存落盘后调用（IO线程）：只保留快照序号之后的记录
+     */
+    public void compact(long snapshotSeq) {
+        try {
+            closeChannel();
+            if (!Files.exists(path)) {
+                compactionRequested.set(false);
+                return;
+            }
+
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            int kept = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                         StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                byte[] record;
+                while ((record = readRecord(in)) != null) {
+                    if (ByteBuffer.wrap(record).getLong() <= snapshotSeq) continue;
+                    writeFully(out, frame(record));
+                    kept++;
+                }
+                out.force(true);
+            }
+
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (kept > 0) {
+                logger.fine("Journal compacted, " + kept + " records kept after seq " + snapshotSeq);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to compact journal: " + e.getMessage());
+        } finally {
+            compactionRequested.set(false);
+        }
+    }
+
+    /**
+     * 关闭前调用（IO线程已停止）
+     */
+    public void close() {
+        try {
+            closeChannel();
+        } catch (IOException e) {
+            logger.warning("Failed to close journal: " + e.getMessage());
+        }
+    }
+
+    private void writePending() {
+        commitQueued.set(false);
+        List<Entry> batch = new ArrayList<>(unwritten);
+        unwritten.clear();
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            batch.add(entry);
+        }
+        if (batch.isEmpty()) return;
+
+        long start = -1L;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (Entry record : batch) {
+                buffer.write(frame(encode(record)));
+            }
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            start = channel.size();
+            writeFully(channel, buffer.toByteArray());
+            channel.force(false);
+        } catch (IOException e) {
+            // 整批留到下一次提交重试；这些组和玩家已标记为脏，同时请求一次保存，由快照覆盖这段时间的变化
+            logger.severe("Failed to write journal, " + batch.size() + " records will be retried: " + e.getMessage());
+            discardPartialWrite(start);
+            unwritten.addAll(batch);
+            if (compactionRequested.compareAndSet(false, true)) {
+                compactionRequest.run();
+            }
+            return;
+        }
+        notifyListener(batch);
+
+        try {
+            if (channel.size() > compactThreshold && compactionRequested.compareAndSet(false, true)) {
+                compactionRequest.run();
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to read journal size: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 截掉写了一半的批次并关闭文件，重放在第一条损坏的记录处停止，残留的半条记录会挡住之后重试写入的记录
+     */
+    private void discardPartialWrite(long start) {
+        if (channel == null) return;
+        try {
+            if (start >= 0L && channel.size() > start) {
+                channel.truncate(start);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to truncate journal: " + e.getMessage());
+        }
+        try {
+            closeChannel();
+        } catch (IOException e) {
+            logger.warning("Failed to close journal: " + e.getMessage());
+        }
+    }
+
+    private void notifyListener(List<Entry> batch) {
+        Listener target = listener;
+        if (target == null) return;
+        for (Entry entry : batch) {
+            switch (entry.type) {
+                case TYPE_SLOTS:
+                    target.slotsWritten(entry.groupName, entry.delta, entry.timestamp);
+                    break;
+                case TYPE_CLEAR:
+                    target.groupCleared(entry.groupName, entry.version, entry.timestamp);
+                    break;
+                case TYPE_CREATE:
+                    target.groupCreated(entry.groupName, entry.timestamp);
+                    break;
+                case TYPE_DELETE:
+                    target.groupDeleted(entry.groupName);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(entry.seq);
+        out.writeByte(entry.type);
+        switch (entry.type) {
+            case TYPE_SLOTS:
+                out.writeUTF(entry.groupName);
+                out.writeLong(entry.version);
+                entry.delta.writeTo(out);
+                break;
+            case TYPE_CLEAR:
+                out.writeUTF(entry.groupName);
+                out.writeLong(entry.version);
+                break;
+            case TYPE_JOIN:
+                out.writeLong(entry.playerId.getMostSignificantBits());
+                out.writeLong(entry.playerId.getLeastSignificantBits());
+                out.writeUTF(entry.groupName);
+                break;
+            case TYPE_LEAVE:
+                out.writeLong(entry.playerId.getMostSignificantBits());
+                out.writeLong(entry.playerId.getLeastSignificantBits());
+                break;
+            default:
+                out.writeUTF(entry.groupName);
+                break;
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void apply(DataInputStream in, Replayer replayer) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_SLOTS: {
+                String groupName = in.readUTF();
+                long version = in.readLong();
+                replayer.applySlots(groupName, SlotDelta.readFrom(in, version));
+                break;
+            }
+            case TYPE_CLEAR:
+                replayer.clearGroup(in.readUTF(), in.readLong());
+                break;
+            case TYPE_JOIN:
+                replayer.join(new UUID(in.readLong(), in.readLong()), in.readUTF());
+                break;
+            case TYPE_LEAVE:
+                replayer.leave(new UUID(in.readLong(), in.readLong()));
+                break;
+            case TYPE_CREATE:
+                replayer.createGroup(in.readUTF());
+                break;
+            case TYPE_DELETE:
+                replayer.deleteGroup(in.readUTF());
+                break;
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    /**
+     * 记录格式：长度 + 内容 + CRC32
+     */
+    static byte[] frame(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer framed = ByteBuffer.allocate(Integer.BYTES + record.length + Integer.BYTES);
+        framed.putInt(record.length);
+        framed.put(record);
+        framed.putInt((int) crc.getValue());
+        return framed.array();
+    }
+
+    /**
+     * 读取下一条完整记录，遇到文件末尾或崩溃时写了一半的记录返回 null
+     */
+    static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > 64 * 1024 * 1024) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully(record);
+            int expected = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            return (int) crc.getValue() == expected ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
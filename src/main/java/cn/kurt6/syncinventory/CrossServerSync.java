@@ -0,0 +1,234 @@
+package cn.kurt6.syncinventory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * 跨服同步
+ * 本服提交的组背包增量和清空先进入队列，每tick在独立线程上编码为一个批次交给传输层发布，
+ * 同时取回其他服务器的批次：按来源服务器和组丢弃重复或过期的版本，之后交给 applyExecutor 写入本服的组背包。
+ * 每条变化带有来源组实例的编号，来源删除后重建同名组时版本号从头开始，接收方按编号重新计数；
+ * 增量的每个槽位带有变化前的物品，接收方据此与本服的并发改动按槽位合并
+ */
+public class CrossServerSync {
+
+    private static final int MAGIC = 0x53495833; // "SIX3"，增量加入变化前的物品后与旧格式不兼容
+    private static final byte TYPE_SLOTS = 1;
+    private static final byte TYPE_CLEAR = 2;
+
+    private final SyncTransport transport;
+    private final String serverId;
+    private final Logger logger;
+    private final Executor applyExecutor;
+    private final Receiver receiver;
+    private final ExecutorService executor;
+
+    private final Queue<Entry> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean exchangeQueued = new AtomicBoolean();
+
+    // 来源服务器 + 组名 -> 已接收的最新实例编号和版本，只在传输线程上访问
+    private final Map<String, Entry> receivedVersions = new HashMap<>();
+
+    /**
+     * 一条增量或清空，delta 为 null 表示清空
+     */
+    static final class Entry {
+        final String origin;
+        final String groupName;
+        final long epoch;
+        final long version;
+        final SlotDelta delta;
+
+        Entry(String origin, String groupName, long epoch, long version, SlotDelta delta) {
+            this.origin = origin;
+            this.groupName = groupName;
+            this.epoch = epoch;
+            this.version = version;
+            this.delta = delta;
+        }
+
+        /**
+         * 是否不晚于 other：先比较实例编号，同一实例再比较版本
+         */
+        boolean notAfter(Entry other) {
+            return epoch < other.epoch || epoch == other.epoch && version <= other.version;
+        }
+    }
+
+    /**
+     * 写入其他服务器的变化，delta 为 null 表示清空
+     */
+    @FunctionalInterface
+    interface Receiver {
+        void apply(String origin, String groupName, SlotDelta delta);
+    }
+
+    /**
+     * @param applyExecutor 执行写入的线程，插件中为全局线程
+     */
+    CrossServerSync(SyncTransport transport, String serverId, Logger logger, Executor applyExecutor, Receiver receiver) {
+        this.transport = transport;
+        this.serverId = serverId;
+        this.logger = logger;
+        this.applyExecutor = applyExecutor;
+        this.receiver = receiver;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SyncInventory-Transport");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public String getServerId() {
+        return serverId;
+    }
+
+    /**
+     * 发布本服玩家提交的增量，远程写入产生的增量不再转发
+     */
+    public void publishSlots(GroupState group, SlotDelta delta) {
+        outgoing.add(new Entry(serverId, group.getName(), group.getEpoch(), delta.getVersion(), delta));
+    }
+
+    /**
+     * @param version 清空后的组背包版本号
+     */
+    public void publishClear(GroupState group, long version) {
+        outgoing.add(new Entry(serverId, group.getName(), group.getEpoch(), version, null));
+    }
+
+    /**
+     * 每tick调用一次，上一次交换尚未完成时跳过
+     */
+    public void tick() {
+        if (!exchangeQueued.compareAndSet(false, true)) return;
+        executor.execute(this::exchange);
+    }
+
+    /**
+     * 发布剩余的变化后关闭传输层
+     */
+    public void close() {
+        executor.execute(this::exchange);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warning("Timed out waiting for cross-server sync to finish");
+            }
+            transport.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.warning("Failed to close sync transport: " + e.getMessage());
+        }
+    }
+
+    private void exchange() {
+        exchangeQueued.set(false);
+
+        List<Entry> batch = new ArrayList<>();
+        Entry entry;
+        while ((entry = outgoing.poll()) != null) {
+            batch.add(entry);
+        }
+        // 不同线程上的提交入队顺序可能与版本号相反，按实例编号和版本号发布以免接收方把较早的版本当作过期丢弃
+        batch.sort(Comparator.<Entry>comparingLong(change -> change.epoch).thenComparingLong(change -> change.version));
+        try {
+            if (!batch.isEmpty()) {
+                transport.publish(encode(batch));
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to publish " + batch.size() + " changes: " + e.getMessage());
+        }
+
+        List<Entry> incoming = new ArrayList<>();
+        try {
+            for (byte[] received : transport.receive()) {
+                try {
+                    decode(received, incoming);
+                } catch (IOException e) {
+                    logger.warning("Skipping malformed sync batch: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to receive sync batches: " + e.getMessage());
+        }
+        if (!incoming.isEmpty()) {
+            applyExecutor.execute(() -> {
+                for (Entry change : incoming) {
+                    receiver.apply(change.origin, change.groupName, change.delta);
+                }
+            });
+        }
+    }
+
+    /**
+     * 批次格式：魔数、来源服务器、条数，之后每条为类型、组名、实例编号、版本号，增量再跟槽位数据（含变化前的物品）
+     */
+    private byte[] encode(List<Entry> batch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeUTF(serverId);
+        out.writeInt(batch.size());
+        for (Entry entry : batch) {
+            out.writeByte(entry.delta == null ? TYPE_CLEAR : TYPE_SLOTS);
+            out.writeUTF(entry.groupName);
+            out.writeLong(entry.epoch);
+            out.writeLong(entry.version);
+            if (entry.delta != null) {
+                entry.delta.writeTo(out, true);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void decode(byte[] batch, List<Entry> result) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(batch));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Invalid sync batch");
+        }
+        String origin = in.readUTF();
+        if (origin.equals(serverId)) return;
+
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            String groupName = in.readUTF();
+            long epoch = in.readLong();
+            long version = in.readLong();
+            SlotDelta delta = null;
+            if (type == TYPE_SLOTS) {
+                delta = SlotDelta.readFrom(in, version, true);
+            } else if (type != TYPE_CLEAR) {
+                throw new IOException("Unknown sync record type " + type);
+            }
+
+            // 同一来源同一组的（实例编号, 版本）只会前进，重复投递和乱序到达的旧版本直接丢弃；
+            // 来源删除后重建同名组时实例编号变大，版本号重新从 0 开始计
+            Entry change = new Entry(origin, groupName, epoch, version, delta);
+            String key = origin + '\0' + groupName;
+            Entry received = receivedVersions.get(key);
+            if (received != null && change.notAfter(received)) continue;
+            receivedVersions.put(key, change);
+            result.add(change);
+        }
+    }
+}
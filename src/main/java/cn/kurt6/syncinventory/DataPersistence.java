@@ -0,0 +1,179 @@
+package cn.kurt6.syncinventory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步持久化管线
+ * 调用方在锁内只做浅拷贝快照，序列化和落盘都在独立的IO线程上完成：
+ * 只写入自上次保存以来变化的组和玩家：每个组一个映射文件，玩家所属关系写入映射的 members.dat 索引；
+ * 玩家的背包备份在同一个IO线程上随时写入
+ */
+public class DataPersistence {
+
+    private final SyncInventory plugin;
+    private final MappedGroupStore groupStore;
+    private final MembershipIndex membershipIndex;
+    private final ExecutorService ioExecutor;
+    private final ChangeJournal journal;
+    private final PlayerBackupStore backupStore;
+    private final GroupHistory history;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private volatile long lastSaveMillis;
+
+    // 写入失败时已生成的快照编号上限，这些快照不再截断日志，只在IO线程上访问
+    private long compactBlockedThrough;
+
+    /**
+     * @param journalThreshold 预写日志超过该字节数时请求一次保存
+     * @param snapshotRequest 请求保存的回调
+     * @param backupCacheSize 内存中最多保留的玩家备份数
+     * @param historyKeyframeInterval 组历史每隔多少条增量写入一次关键帧
+     * @param historyRetentionMillis 组历史保留时长
+     */
+    public DataPersistence(SyncInventory plugin, File dataFolder, MappedGroupStore groupStore,
+                           MembershipIndex membershipIndex, long journalThreshold, Runnable snapshotRequest,
+                           int backupCacheSize, int historyKeyframeInterval, long historyRetentionMillis) throws IOException {
+        this.plugin = plugin;
+        this.groupStore = groupStore;
+        this.membershipIndex = membershipIndex;
+        this.ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SyncInventory-IO");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 日志写入与快照共用同一个IO线程，保证快照与截断的先后顺序
+        this.journal = new ChangeJournal(new File(dataFolder, "journal.log").toPath(),
+                ioExecutor, plugin.getLogger(), journalThreshold, snapshotRequest);
+        this.backupStore = PlayerBackupStore.open(new File(dataFolder, "backups").toPath(),
+                ioExecutor, plugin.getLogger(), backupCacheSize);
+        // 组背包的日志记录写入后转交组历史
+        this.history = new GroupHistory(new File(dataFolder, "history").toPath(), ioExecutor, plugin.getLogger(),
+                historyKeyframeInterval, historyRetentionMillis);
+        journal.setListener(history);
+    }
+
+    /**
+     * 自上次保存以来变化的组与玩家数据，数组中的物品不会再被修改；
+     * 值为 null 表示该组已删除或该玩家已离开组
+     */
+    public static final class Snapshot {
+        private static final AtomicLong IDS = new AtomicLong();
+
+        final long id;
+        final long journalSeq;
+        final Map<String, GroupSnapshot> groups;
+        final Map<UUID, String> players;
+
+        /**
+         * @param id 在取出脏数据之前通过 {@link #nextId()} 分配的编号
+         * @param journalSeq 复制数据之前读取的日志序号，快照已包含该序号及之前的全部变化
+         */
+        public Snapshot(long id, long journalSeq, Map<String, GroupSnapshot> groups, Map<UUID, String> players) {
+            this.id = id;
+            this.journalSeq = journalSeq;
+            this.groups = groups;
+            this.players = players;
+        }
+
+        static long nextId() {
+            return IDS.incrementAndGet();
+        }
+
+        /**
+         * 已分配的最大快照编号
+         */
+        static long lastId() {
+            return IDS.get();
+        }
+    }
+
+    public ChangeJournal getJournal() {
+        return journal;
+    }
+
+    public PlayerBackupStore getBackupStore() {
+        return backupStore;
+    }
+
+    public GroupHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * 提交快照到IO线程写入
+     */
+    public void submit(Snapshot snapshot) {
+        queueDepth.incrementAndGet();
+        ioExecutor.execute(() -> {
+            try {
+                write(snapshot);
+            } finally {
+                queueDepth.decrementAndGet();
+            }
+        });
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getLastSaveMillis() {
+        return lastSaveMillis;
+    }
+
+    /**
+     * 等待已提交的保存全部完成后关闭IO线程和组存储
+     */
+    public void shutdown() {
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for pending saves, " + queueDepth.get() + " still queued");
+                return;
+            }
+            journal.close();
+            history.close();
+            groupStore.close();
+            membershipIndex.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            plugin.getLogger().severe(plugin.getMessage("error-save-data") + ": " + e.getMessage());
+        }
+    }
+
+    private void write(Snapshot snapshot) {
+        long start = System.nanoTime();
+        try {
+            // 组数据只覆盖变化的槽位，先于所属关系落盘；索引最后写入日志序号
+            groupStore.write(snapshot.groups);
+            membershipIndex.write(snapshot.players, snapshot.journalSeq);
+
+            // 快照已落盘，丢弃被其覆盖的日志记录；失败前已排队的快照缺少被退回的脏数据，不能截断
+            if (snapshot.id > compactBlockedThrough) {
+                journal.compact(snapshot.journalSeq);
+            }
+
+            long elapsed = System.nanoTime() - start;
+            plugin.getMetrics().save().record(elapsed);
+            lastSaveMillis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+            // 日志写满时也会触发保存，频率远高于定时保存，不在 INFO 级别逐次记录
+            plugin.getLogger().fine(plugin.getMessage("data-saved",
+                    "time", String.valueOf(lastSaveMillis),
+                    "queue", String.valueOf(queueDepth.get() - 1)));
+        } catch (IOException e) {
+            plugin.getLogger().severe(plugin.getMessage("error-save-data") + ": " + e.getMessage());
+            // 把本次的组和玩家重新标记为脏，下次保存时重写
+            compactBlockedThrough = plugin.restoreDirty(snapshot.groups.keySet(), snapshot.players.keySet());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package cn.kurt6.syncinventory;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 共享本地目录传输，用于在一台机器上测试多个服务端
+ * 每个批次写成一个文件，文件名为 发布时间-服务器标识-序号.batch，先写临时文件再原子改名；
+ * 接收方按文件名顺序读取其他服务器的新文件，各服务器只清理自己发布的过期文件
+ */
+public final class DirectoryTransport implements SyncTransport {
+
+    private static final String EXTENSION = ".batch";
+
+    private final Path directory;
+    private final String serverId;
+    private final long retentionMillis;
+
+    // 已读取或启动前已存在的文件名
+    private final Set<String> seen = new HashSet<>();
+    // 本服发布且尚未清理的文件名，按发布顺序排列
+    private final Deque<String> published = new ArrayDeque<>();
+    private long sequence;
+
+    private DirectoryTransport(Path directory, String serverId, long retentionMillis) {
+        this.directory = directory;
+        this.serverId = serverId.replaceAll("[^A-Za-z0-9_]", "_");
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * 启动前已存在的批次视为已读，不重放其他服务器过去的变化；本服上次运行留下的文件之后照常清理
+     */
+    public static DirectoryTransport open(Path directory, String serverId, long retentionMillis) throws IOException {
+        Files.createDirectories(directory);
+        DirectoryTransport transport = new DirectoryTransport(directory, serverId, retentionMillis);
+        String own = "-" + transport.serverId + "-";
+        for (String name : transport.listBatches()) {
+            transport.seen.add(name);
+            if (name.contains(own)) {
+                transport.published.add(name);
+            }
+        }
+        return transport;
+    }
+
+    @Override
+    public void publish(byte[] batch) throws IOException {
+        long now = System.currentTimeMillis();
+        String name = String.format("%013d-%s-%08d%s", now, serverId, ++sequence, EXTENSION);
+        Path temp = directory.resolve("." + name + ".tmp");
+        Files.write(temp, batch);
+        try {
+            Files.move(temp, directory.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, directory.resolve(name));
+        }
+        seen.add(name);
+        published.add(name);
+        deleteExpired(now);
+    }
+
+    @Override
+    public List<byte[]> receive() throws IOException {
+        List<String> names = listBatches();
+        // 目录中已不存在的文件不再需要记录
+        seen.retainAll(new HashSet<>(names));
+
+        List<byte[]> batches = new ArrayList<>();
+        for (String name : names) {
+            if (!seen.add(name)) continue;
+            try {
+                batches.add(Files.readAllBytes(directory.resolve(name)));
+            } catch (NoSuchFileException e) {
+                // 发布方已清理，跳过
+            }
+        }
+        return batches;
+    }
+
+    @Override
+    public void close() {
+        seen.clear();
+    }
+
+    /**
+     * 目录中的全部批次文件名，按发布时间排序
+     */
+    private List<String> listBatches() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        names.sort(null);
+        return names;
+    }
+
+    private void deleteExpired(long now) {
+        String name;
+        while ((name = published.peek()) != null) {
+            long publishedAt = Long.parseLong(name.substring(0, name.indexOf('-')));
+            if (now - publishedAt < retentionMillis) return;
+            try {
+                Files.deleteIfExists(directory.resolve(name));
+            } catch (IOException e) {
+                // 下次发布时重试
+                return;
+            }
+            published.poll();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package cn.kurt6.syncinventory;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Folia 区域化线程的调度实现
+ */
+final class FoliaPlatformScheduler implements PlatformScheduler {
+
+    private final Plugin plugin;
+
+    FoliaPlatformScheduler(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean isFolia() {
+        return true;
+    }
+
+    @Override
+    public void execute(Entity entity, Runnable task) {
+        if (Bukkit.isOwnedByCurrentRegion(entity)) {
+            task.run();
+        } else {
+            entity.getScheduler().execute(plugin, task, null, 1L);
+        }
+    }
+
+    @Override
+    public void runLater(Entity entity, Runnable task, long delay) {
+        // Folia 的实体任务至少延迟1 tick
+        entity.getScheduler().execute(plugin, task, null, Math.max(1L, delay));
+    }
+
+    @Override
+    public <T> void executeAll(Iterable<T> targets, Function<? super T, ? extends Entity> entityOf, Consumer<? super T> action) {
+        for (T target : targets) {
+            Entity entity = entityOf.apply(target);
+            if (Bukkit.isOwnedByCurrentRegion(entity)) {
+                action.accept(target);
+            } else {
+                entity.getScheduler().execute(plugin, () -> action.accept(target), null, 1L);
+            }
+        }
+    }
+
+    @Override
+    public void runGlobalLater(Runnable task, long delay) {
+        if (delay <= 0L) {
+            Bukkit.getGlobalRegionScheduler().execute(plugin, task);
+        } else {
+            Bukkit.getGlobalRegionScheduler().runDelayed(plugin, scheduled -> task.run(), delay);
+        }
+    }
+
+    @Override
+    public Task runGlobalTimer(Runnable task, long delay, long period) {
+        ScheduledTask scheduled = Bukkit.getGlobalRegionScheduler()
+                .runAtFixedRate(plugin, t -> task.run(), Math.max(1L, delay), period);
+        return scheduled::cancel;
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        Bukkit.getAsyncScheduler().runNow(plugin, scheduled -> task.run());
+    }
+}
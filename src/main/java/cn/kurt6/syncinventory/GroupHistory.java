@@ -0,0 +1,342 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * 组背包历史
+ * 每个组一个追加写入的历史文件，记录各版本之间变化的槽位，每隔若干条写入一次完整的关键帧，
+ * 清空也记为一个空的关键帧。回溯到某一时刻时从该时刻之前最近的关键帧开始，按版本号应用之后的增量。
+ * 超出保留时长的关键帧及其增量在写入新关键帧时整段丢弃。
+ * 记录由预写日志在IO线程上写入后转交，索引和打开的历史文件只在IO线程上访问
+ */
+public class GroupHistory implements ChangeJournal.Listener {
+
+    private static final byte TYPE_KEYFRAME = 1;
+    private static final byte TYPE_DELTA = 2;
+    private static final String EXTENSION = ".hist";
+
+    private final Path directory;
+    private final Executor ioExecutor;
+    private final Logger logger;
+    private final int keyframeInterval;
+    private final long retentionMillis;
+
+    // 组名 -> 历史文件索引，首次访问时扫描文件建立
+    private final Map<String, Index> indexes = new HashMap<>();
+
+    private static final class Index {
+        // 关键帧的时间与文件偏移，按写入顺序排列
+        final List<long[]> keyframes = new ArrayList<>();
+        long size;
+        int sinceKeyframe;
+        // 追加写入用的文件，首次写入时打开，组删除、裁剪替换文件或关闭时关掉
+        FileChannel channel;
+    }
+
+
+    /**
+     * @param keyframeInterval 每隔多少条增量写入一次关键帧
+     * @param retentionMillis 历史保留时长
+     */
+    public GroupHistory(Path directory, Executor ioExecutor, Logger logger, int keyframeInterval,
+                        long retentionMillis) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.ioExecutor = ioExecutor;
+        this.logger = logger;
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        this.retentionMillis = retentionMillis;
+    }
+
+    @Override
+    public void slotsWritten(String groupName, SlotDelta delta, long timestamp) {
+        try {
+            Index index = index(groupName);
+            append(groupName, index, encodeDelta(delta, timestamp));
+            index.sinceKeyframe++;
+
+            // 关键帧取该增量提交后的组背包，与增量同一版本、同一时间；
+            // 日志中排在其后的旧版本增量已包含在关键帧中，回溯时按版本号跳过
+            GroupSnapshot committed = delta.getCommitted();
+            if (committed != null && (index.keyframes.isEmpty() || index.sinceKeyframe >= keyframeInterval)) {
+                writeKeyframe(groupName, index, committed.getVersion(), committed.toArray(), timestamp);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to write history of group " + groupName + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void groupCleared(String groupName, long version, long timestamp) {
+        try {
+            writeKeyframe(groupName, index(groupName), version, new ItemStack[GroupState.SLOT_COUNT], timestamp);
+        } catch (IOException e) {
+            logger.warning("Failed to write history of group " + groupName + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void groupCreated(String groupName, long timestamp) {
+        // 同名的组重新创建后版本号从0开始，不沿用之前的历史
+        groupDeleted(groupName);
+        groupCleared(groupName, 0L, timestamp);
+    }
+
+    @Override
+    public void groupDeleted(String groupName) {
+        Index index = indexes.remove(groupName);
+        try {
+            if (index != null) {
+                closeChannel(index);
+            }
+            Files.deleteIfExists(path(groupName));
+        } catch (IOException e) {
+            logger.warning("Failed to delete history of group " + groupName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 关闭打开的历史文件，在IO线程停止之后调用
+     */
+    public void close() {
+        for (Map.Entry<String, Index> entry : indexes.entrySet()) {
+            try {
+                closeChannel(entry.getValue());
+            } catch (IOException e) {
+                logger.warning("Failed to close history of group " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 在IO线程上重建组背包在该时刻的内容，排在之前提交的日志写入之后执行；
+     * 回调在IO线程上调用，没有足够早的历史时参数为 null
+     */
+    public void reconstruct(String groupName, long timestamp, Consumer<ItemStack[]> callback) {
+        ioExecutor.execute(() -> {
+            ItemStack[] items = null;
+            try {
+                items = reconstruct(groupName, timestamp);
+            } catch (IOException e) {
+                logger.warning("Failed to read history of group " + groupName + ": " + e.getMessage());
+            }
+            callback.accept(items);
+        });
+    }
+
+    private ItemStack[] reconstruct(String groupName, long timestamp) throws IOException {
+        Index index = index(groupName);
+        long[] keyframe = null;
+        for (long[] candidate : index.keyframes) {
+            if (candidate[0] > timestamp) break;
+            keyframe = candidate;
+        }
+        if (keyframe == null) return null;
+
+        try (FileChannel channel = FileChannel.open(path(groupName), StandardOpenOption.READ)) {
+            channel.position(keyframe[1]);
+            InputStream stream = new BufferedInputStream(Channels.newInputStream(channel));
+            DataInputStream in = new DataInputStream(stream);
+
+            byte[] keyframeRecord = ChangeJournal.readRecord(in);
+            if (keyframeRecord == null) return null;
+            DataInputStream base = new DataInputStream(new ByteArrayInputStream(keyframeRecord));
+            base.readByte();
+            base.readLong();
+            SlotDelta keyframeSlots = SlotDelta.readFrom(base, base.readLong());
+            ItemStack[] items = new ItemStack[GroupState.SLOT_COUNT];
+            apply(keyframeSlots, items);
+
+            // 之后的增量可能因并发提交而不按版本号排列，全部读出后再排序
+            List<SlotDelta> deltas = new ArrayList<>();
+            byte[] record;
+            while ((record = ChangeJournal.readRecord(in)) != null) {
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+                if (data.readByte() != TYPE_DELTA) continue;
+                if (data.readLong() > timestamp) continue;
+                long version = data.readLong();
+                if (version <= keyframeSlots.getVersion()) continue;
+                deltas.add(SlotDelta.readFrom(data, version));
+            }
+
+            deltas.sort(Comparator.comparingLong(SlotDelta::getVersion));
+            for (SlotDelta delta : deltas) {
+                apply(delta, items);
+            }
+            return items;
+        }
+    }
+
+    private void writeKeyframe(String groupName, Index index, long version, ItemStack[] items, long timestamp) throws IOException {
+        long offset = index.size;
+        append(groupName, index, encodeKeyframe(version, items, timestamp));
+        index.keyframes.add(new long[]{timestamp, offset});
+        index.sinceKeyframe = 0;
+        prune(groupName, index);
+    }
+
+    /**
+     * 丢弃保留时长之前的历史：保留截止时刻之前最近的关键帧，以便仍能回溯到截止时刻
+     */
+    private void prune(String groupName, Index index) throws IOException {
+        if (retentionMillis <= 0L) return;
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        int keep = 0;
+        for (int i = 1; i < index.keyframes.size(); i++) {
+            if (index.keyframes.get(i)[0] > cutoff) break;
+            keep = i;
+        }
+        if (keep == 0) return;
+
+        long offset = index.keyframes.get(keep)[1];
+        closeChannel(index);
+        Path path = path(groupName);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = offset;
+            while (position < index.size) {
+                position += in.transferTo(position, index.size - position, out);
+            }
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        index.keyframes.subList(0, keep).clear();
+        for (long[] keyframe : index.keyframes) {
+            keyframe[1] -= offset;
+        }
+        index.size -= offset;
+    }
+
+    private void append(String groupName, Index index, byte[] record) throws IOException {
+        byte[] framed = ChangeJournal.frame(record);
+        if (index.channel == null) {
+            index.channel = FileChannel.open(path(groupName), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        try {
+            index.channel.position(index.size);
+            ChangeJournal.writeFully(index.channel, framed);
+        } catch (IOException e) {
+            // 写了一半的记录由下次写入从 index.size 处覆盖，文件重新打开，不再沿用出错的句柄
+            closeChannel(index);
+            throw e;
+        }
+        index.size += framed.length;
+    }
+
+    private static void closeChannel(Index index) throws IOException {
+        if (index.channel != null) {
+            FileChannel channel = index.channel;
+            index.channel = null;
+            channel.close();
+        }
+    }
+
+    /**
+     * 取得组的索引，首次访问时扫描历史文件；末尾不完整的记录被截掉
+     */
+    private Index index(String groupName) throws IOException {
+        Index index = indexes.get(groupName);
+        if (index != null) return index;
+
+        index = new Index();
+        Path path = path(groupName);
+        if (Files.exists(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                byte[] record;
+                while ((record = ChangeJournal.readRecord(in)) != null) {
+                    DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+                    byte type = data.readByte();
+                    long timestamp = data.readLong();
+                    if (type == TYPE_KEYFRAME) {
+                        index.keyframes.add(new long[]{timestamp, index.size});
+                        index.sinceKeyframe = 0;
+                    } else {
+                        index.sinceKeyframe++;
+                    }
+                    // 长度 + 内容 + CRC32
+                    index.size += Integer.BYTES + record.length + Integer.BYTES;
+                }
+            }
+            if (Files.size(path) > index.size) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(index.size);
+                }
+            }
+        }
+        indexes.put(groupName, index);
+        return index;
+    }
+
+    private static void apply(SlotDelta delta, ItemStack[] items) {
+        for (int i = 0; i < delta.size(); i++) {
+            items[delta.slotAt(i)] = delta.itemAt(i);
+        }
+    }
+
+    private Path path(String groupName) {
+        return directory.resolve(MappedGroupStore.fileName(groupName, EXTENSION));
+    }
+
+    /**
+     * 关键帧：类型、时间、版本号，之后是非空槽位的槽位号与物品
+     */
+    private static byte[] encodeKeyframe(long version, ItemStack[] items, long timestamp) throws IOException {
+        int[] slots = new int[items.length];
+        ItemStack[] present = new ItemStack[items.length];
+        int size = 0;
+        for (int slot = 0; slot < items.length; slot++) {
+            if (items[slot] == null) continue;
+            slots[size] = slot;
+            present[size] = items[slot];
+            size++;
+        }
+        return encode(TYPE_KEYFRAME, timestamp, new SlotDelta(slots, present, size, version));
+    }
+
+    /**
+     * 增量：类型、时间、版本号，之后是变化槽位的槽位号与新物品
+     */
+    private static byte[] encodeDelta(SlotDelta delta, long timestamp) throws IOException {
+        return encode(TYPE_DELTA, timestamp, delta);
+    }
+
+    private static byte[] encode(byte type, long timestamp, SlotDelta delta) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeLong(timestamp);
+        out.writeLong(delta.getVersion());
+        delta.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
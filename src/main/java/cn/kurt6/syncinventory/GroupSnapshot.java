@@ -0,0 +1,169 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Arrays;
+
+/**
+ * 组背包某一版本的不可变内容
+ * 槽位数组和其中的物品创建后都不再修改，新版本只替换变化的槽位，
+ * 未变化的槽位与上一版本共用同一个物品引用。
+ * 每个槽位附带一个内容指纹，捕获时先比较指纹，只有指纹不同的槽位才视为变化；
+ * 以及该槽位最近一次变化的版本号，用来判断玩家改动的槽位在其看到之后是否也被其他成员改过
+ */
+public final class GroupSnapshot {
+
+    // 空槽位的指纹，非空物品的指纹不会等于它
+    static final long EMPTY_FINGERPRINT = 0L;
+
+    // 全空版本共用的指纹数组，只读
+    static final long[] EMPTY_FINGERPRINTS = new long[GroupState.SLOT_COUNT];
+
+    private final long version;
+    private final ItemStack[] items;
+    private final long[] fingerprints;
+    private final long[] slotVersions;
+
+    /**
+     * 逐槽位计算指纹，用于加载等没有上一版本可沿用的场合
+     *
+     * @param items 由调用方移交所有权，之后不得再修改
+     */
+    GroupSnapshot(long version, ItemStack[] items) {
+        this(version, items, fingerprints(items));
+    }
+
+    /**
+     * @param items        由调用方移交所有权，之后不得再修改
+     * @param fingerprints 与 items 一一对应的指纹，同样移交所有权
+     */
+    GroupSnapshot(long version, ItemStack[] items, long[] fingerprints) {
+        this(version, items, fingerprints, uniformVersions(version));
+    }
+
+    private GroupSnapshot(long version, ItemStack[] items, long[] fingerprints, long[] slotVersions) {
+        this.version = version;
+        this.items = items;
+        this.fingerprints = fingerprints;
+        this.slotVersions = slotVersions;
+    }
+
+    /**
+     * 以给定版本号替换部分槽位，其余槽位沿用本版本的物品、指纹和槽位版本
+     *
+     * @param items 由调用方移交所有权，之后不得再修改
+     */
+    GroupSnapshot withSlots(long version, int[] slots, ItemStack[] items, long[] fingerprints, int size) {
+        ItemStack[] nextItems = this.items.clone();
+        long[] nextFingerprints = this.fingerprints.clone();
+        long[] nextVersions = this.slotVersions.clone();
+        for (int i = 0; i < size; i++) {
+            int slot = slots[i];
+            nextItems[slot] = items[i];
+            nextFingerprints[slot] = fingerprints[i];
+            nextVersions[slot] = version;
+        }
+        return new GroupSnapshot(version, nextItems, nextFingerprints, nextVersions);
+    }
+
+    private static long[] uniformVersions(long version) {
+        long[] versions = new long[GroupState.SLOT_COUNT];
+        Arrays.fill(versions, version);
+        return versions;
+    }
+
+    static GroupSnapshot empty(long version) {
+        return new GroupSnapshot(version, new ItemStack[GroupState.SLOT_COUNT], EMPTY_FINGERPRINTS);
+    }
+
+    /**
+     * 物品内容的 64 位指纹，内容相同的物品指纹相同，空槽位为 EMPTY_FINGERPRINT
+     * 由类型、数量和 ItemStack#hashCode（覆盖物品组件）混合得到。hashCode 只有 32 位，
+     * 类型和数量相同、组件不同的物品可能得到相同的指纹，所以指纹不同说明内容不同，指纹相同则不能保证内容相同。
+     * 捕获时指纹相同的槽位按未改动处理；碰撞时该次改动要等槽位再次变化才会推送，
+     * 槽位已被其他成员改过、要据此丢弃玩家改动的地方再用 isSimilar 和数量确认
+     */
+    static long fingerprint(ItemStack item) {
+        if (item == null || item.getType().isAir() || item.getAmount() <= 0) {
+            return EMPTY_FINGERPRINT;
+        }
+        long hash = item.getType().ordinal();
+        hash = hash * 0x9E3779B97F4A7C15L + item.getAmount();
+        hash = hash * 0x9E3779B97F4A7C15L + item.hashCode();
+        // murmur3 fmix64
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY_FINGERPRINT ? 1L : hash;
+    }
+
+    private static long[] fingerprints(ItemStack[] items) {
+        long[] fingerprints = new long[items.length];
+        for (int slot = 0; slot < items.length; slot++) {
+            fingerprints[slot] = fingerprint(items[slot]);
+        }
+        return fingerprints;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 槽位中的物品，空槽位为 null，返回的物品不得修改
+     */
+    public ItemStack getItem(int slot) {
+        return items[slot];
+    }
+
+    /**
+     * 槽位中物品的指纹
+     */
+    public long getFingerprint(int slot) {
+        return fingerprints[slot];
+    }
+
+    /**
+     * 槽位最近一次变化的版本号，加载和清空后的版本中所有槽位都等于该版本号
+     */
+    public long getSlotVersion(int slot) {
+        return slotVersions[slot];
+    }
+
+    /**
+     * 返回槽位数组的浅拷贝
+     */
+    public ItemStack[] toArray() {
+        return items.clone();
+    }
+
+    public boolean isEmpty() {
+        for (ItemStack item : items) {
+            if (item != null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 内部数组，只读，供存储层按引用比较槽位
+     */
+    ItemStack[] items() {
+        return items;
+    }
+
+    /**
+     * 内部指纹数组，只读，构造下一版本时复制后只更新变化的槽位
+     */
+    long[] fingerprints() {
+        return fingerprints;
+    }
+
+    /**
+     * 内部槽位版本数组，只读
+     */
+    long[] slotVersions() {
+        return slotVersions;
+    }
+}
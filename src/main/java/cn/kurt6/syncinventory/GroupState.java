@@ -0,0 +1,551 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 单个组的共享背包与成员
+ * 背包内容是带版本号的不可变快照，写入方基于当前快照构造新版本并以CAS替换，
+ * 读取方（保存、统计、分发）直接拿到某一版本，不需要任何锁，不同组之间互不影响。
+ * 没有在线成员的组可以只保留成员列表，内容在需要时由 ensureResident 从存储读回
+ */
+public final class GroupState {
+
+    public static final int SLOT_COUNT = 36;
+
+    // 最近分配的实例编号
+    private static final AtomicLong LAST_EPOCH = new AtomicLong();
+
+    private final String name;
+    // 本实例的编号：创建或加载时的毫秒时间，同一进程内严格递增。
+    // 删除后重建的同名组版本号从 0 开始，跨服接收方靠它区分新旧两个组
+    private final long epoch = LAST_EPOCH.accumulateAndGet(System.currentTimeMillis(), (last, now) -> Math.max(last + 1, now));
+    // 组内容未驻留内存时为 null
+    private final AtomicReference<GroupSnapshot> current;
+    private final Set<UUID> members = ConcurrentHashMap.newKeySet();
+    // 当前在线且绑定到本组的会话，由会话在加入、退出和换组时维护；
+    // 分发只遍历这些会话，不必为大量离线成员逐个查找玩家
+    private final Set<PlayerSyncSession> onlineMembers = ConcurrentHashMap.newKeySet();
+
+    // 最近一次有成员在线或读入内容的时间
+    private volatile long lastActiveMillis = System.currentTimeMillis();
+
+    GroupState(String name, GroupSnapshot initial) {
+        this.name = name;
+        this.current = new AtomicReference<>(initial);
+    }
+
+    static GroupState create(String name) {
+        return new GroupState(name, GroupSnapshot.empty(0L));
+    }
+
+    /**
+     * 内容尚未读取的组，首次需要时由 ensureResident 加载
+     */
+    static GroupState unloaded(String name) {
+        return new GroupState(name, null);
+    }
+
+    /**
+     * 以加载得到的物品作为初始内容，调用方之后不得修改这些物品
+     */
+    static GroupState load(String name, long version, ItemStack[] items) {
+        ItemStack[] slots = new ItemStack[SLOT_COUNT];
+        for (int slot = 0; slot < Math.min(items.length, SLOT_COUNT); slot++) {
+            slots[slot] = normalize(items[slot]);
+        }
+        return new GroupState(name, new GroupSnapshot(version, slots));
+    }
+
+    /**
+     * 本实例的编号，较晚创建或加载的同名组编号较大
+     */
+    long getEpoch() {
+        return epoch;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Set<UUID> getMembers() {
+        return members;
+    }
+
+    /**
+     * 在线成员的会话，只读，由会话自己增删
+     */
+    public Set<PlayerSyncSession> getOnlineMembers() {
+        return onlineMembers;
+    }
+
+    boolean addOnline(PlayerSyncSession session) {
+        return onlineMembers.add(session);
+    }
+
+    boolean removeOnline(PlayerSyncSession session) {
+        return onlineMembers.remove(session);
+    }
+
+    /**
+     * 当前版本，无锁读取；内容未驻留内存时为 null
+     */
+    public GroupSnapshot snapshot() {
+        return current.get();
+    }
+
+    public boolean isResident() {
+        return current.get() != null;
+    }
+
+    /**
+     * 确保组内容已在内存中并返回当前版本，读取失败（loader 返回 null）时返回 null 且保持未驻留
+     */
+    GroupSnapshot ensureResident(Function<String, GroupSnapshot> loader) {
+        GroupSnapshot snapshot = current.get();
+        if (snapshot != null) {
+            lastActiveMillis = System.currentTimeMillis();
+            return snapshot;
+        }
+        synchronized (this) {
+            lastActiveMillis = System.currentTimeMillis();
+            snapshot = current.get();
+            if (snapshot == null) {
+                snapshot = loader.apply(name);
+                if (snapshot == null) return null;
+                current.set(snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    long getLastActiveMillis() {
+        return lastActiveMillis;
+    }
+
+    void touch() {
+        lastActiveMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 把组内容移出内存：只在当前版本仍是 expected、且此后没有成员上线读取内容时成功。
+     * 之前检查的落盘状态因此对应的就是被丢弃的这一版本
+     */
+    synchronized boolean evict(GroupSnapshot expected, long expectedActiveMillis) {
+        if (lastActiveMillis != expectedActiveMillis) return false;
+        return current.compareAndSet(expected, null);
+    }
+
+    /**
+     * 把会话玩家自己的改动提交为组背包的新版本：只有与插件最近写入该玩家的状态不同的槽位才算改动，
+     * 其他成员在其看到之后也改过的同一槽位按数量合并。调用前由 PlayerSyncSession#observe 读入玩家背包；
+     * 不修改玩家背包，需要写回的槽位由调用方按返回结果写入。只在玩家所在线程调用
+     */
+    CaptureResult capture(PlayerSyncSession session, SyncMetrics metrics) {
+        ItemStack[] observed = session.observedItems();
+        long[] observedFingerprints = session.observedFingerprints();
+        try {
+            // 尚未拉取过组背包时没有写入记录，退回到与当前版本比较
+            GroupSnapshot reference = current.get();
+            if (reference == null) return CaptureResult.EMPTY;
+            long[] baseline = session.hasBaseline() ? session.baselineFingerprints() : reference.fingerprints();
+            long edited = 0L;
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                if (observedFingerprints[slot] != baseline[slot]) {
+                    edited |= 1L << slot;
+                }
+            }
+            if (edited == 0L) {
+                if (!matches(reference, observedFingerprints)) {
+                    // 背包仍是插件写入的状态，只是组背包已有更新的版本
+                    metrics.suppressedEchoes().increment();
+                }
+                return CaptureResult.EMPTY;
+            }
+
+            // 玩家看到的各槽位版本与数量；尚未拉取过时同样以 reference 为准
+            boolean known = session.hasBaseline();
+            long[] seenVersions = known ? session.baselineSlotVersions() : reference.slotVersions();
+            int[] seenAmounts = known ? session.baselineAmounts() : null;
+
+            // 克隆结果和增量数组在重试之间复用，提交成功后移交给增量
+            ItemStack[] copies = new ItemStack[SLOT_COUNT];
+            int[] slots = new int[SLOT_COUNT];
+            ItemStack[] items = new ItemStack[SLOT_COUNT];
+            long[] itemFingerprints = new long[SLOT_COUNT];
+            ItemStack[] previous = new ItemStack[SLOT_COUNT];
+            while (true) {
+                GroupSnapshot base = current.get();
+                if (base == null) return CaptureResult.EMPTY;
+                int size = 0;
+                // 合并结果与玩家背包不同的槽位
+                long merged = 0L;
+                // 放入移位物品的空槽位
+                long placed = 0L;
+                // 移位物品放不下、本次不合并的槽位
+                long deferred = 0L;
+                int relocated = 0;
+
+                for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                    if ((edited & (1L << slot)) == 0L) continue;
+                    // 其他成员在玩家看到之后也改过该槽位，即使结果恰好相同（两人各吃掉一个）也要合并
+                    boolean concurrent = base.getSlotVersion(slot) > seenVersions[slot];
+                    if (!concurrent && observedFingerprints[slot] == base.getFingerprint(slot)) continue;
+
+                    ItemStack item = observed[slot];
+                    if (item != null && copies[slot] == null) {
+                        copies[slot] = item.clone();
+                    }
+                    item = copies[slot];
+                    long fingerprint = observedFingerprints[slot];
+
+                    if (concurrent) {
+                        ItemStack latest = base.getItem(slot);
+                        // 超出最大堆叠的部分，或被其他成员的物品占住槽位的玩家物品
+                        ItemStack displaced = null;
+                        int seenAmount = known ? seenAmounts[slot] : amountOf(reference.getItem(slot));
+                        int amount = mergedAmount(item, latest, baseline[slot], seenAmount);
+                        if (amount >= 0) {
+                            ItemStack kind = item != null ? item : latest;
+                            int maxStack = kind.getMaxStackSize();
+                            if (amount > maxStack) {
+                                displaced = withAmount(kind, amount - maxStack);
+                                amount = maxStack;
+                            }
+                            item = amount == 0 ? null : withAmount(kind, amount);
+                            fingerprint = GroupSnapshot.fingerprint(item);
+                        } else if (item != null && latest != null && !item.isSimilar(latest)) {
+                            // 两边放入了不同的物品：槽位保留其他成员的物品
+                            displaced = item;
+                            item = latest;
+                            fingerprint = base.getFingerprint(slot);
+                        }
+
+                        if (displaced != null) {
+                            // 移位的物品只放入组背包的空槽位；放不下时该槽位本次不合并，玩家保留自己的物品
+                            int maxStack = displaced.getMaxStackSize();
+                            int parts = (displaced.getAmount() + maxStack - 1) / maxStack;
+                            long targets = freeSlots(parts, edited | placed, base, observed);
+                            if (targets == 0L) {
+                                deferred |= 1L << slot;
+                                continue;
+                            }
+                            int remaining = displaced.getAmount();
+                            for (int target = 0; target < SLOT_COUNT; target++) {
+                                if ((targets & (1L << target)) == 0L) continue;
+                                ItemStack part = withAmount(displaced, Math.min(remaining, maxStack));
+                                remaining -= part.getAmount();
+                                slots[size] = target;
+                                items[size] = part;
+                                itemFingerprints[size] = GroupSnapshot.fingerprint(part);
+                                previous[size] = null;
+                                size++;
+                            }
+                            placed |= targets;
+                            relocated++;
+                        }
+                        // 指纹可能碰撞，相同时再比较物品本身，避免把不同的结果当作无需写回或无需提交
+                        if (fingerprint != observedFingerprints[slot] || !sameItem(item, observed[slot])) {
+                            merged |= 1L << slot;
+                        }
+                        if (fingerprint == base.getFingerprint(slot) && sameItem(item, latest)) continue;
+                    }
+
+                    slots[size] = slot;
+                    items[size] = item;
+                    itemFingerprints[size] = fingerprint;
+                    previous[size] = base.getItem(slot);
+                    size++;
+                }
+
+                GroupSnapshot committed = base;
+                SlotDelta delta = SlotDelta.EMPTY;
+                if (size > 0) {
+                    GroupSnapshot updated = base.withSlots(base.getVersion() + 1, slots, items, itemFingerprints, size);
+                    if (!current.compareAndSet(base, updated)) {
+                        metrics.captureRetries().increment();
+                        continue;
+                    }
+                    committed = updated;
+                    delta = new SlotDelta(slots, items, itemFingerprints, previous, size, updated);
+                }
+                session.commitBaseline(committed, (edited | placed) & ~deferred, deferred, reference);
+                return new CaptureResult(delta, committed, merged | placed, Long.bitCount(merged), relocated, deferred);
+            }
+        } finally {
+            // 不在会话中保留背包物品的引用
+            Arrays.fill(observed, null);
+        }
+    }
+
+    /**
+     * 两个物品的类型、组件和数量是否都相同，用于确认指纹相同的物品确实相同
+     */
+    private static boolean sameItem(ItemStack first, ItemStack second) {
+        if (first == second) return true;
+        if (first == null || second == null) return false;
+        return first.getAmount() == second.getAmount() && first.isSimilar(second);
+    }
+
+    /**
+     * 两个物品是否可以叠加，空槽位与任何物品都可以
+     */
+    private static boolean similar(ItemStack first, ItemStack second) {
+        return first == null || second == null || first.isSimilar(second);
+    }
+
+    /**
+     * 放下 count 份物品的空槽位：尚未占用、组背包和玩家背包（observed 不为 null 时）都为空，按槽位顺序取；不够时返回 0
+     */
+    private static long freeSlots(int count, long taken, GroupSnapshot base, ItemStack[] observed) {
+        long free = 0L;
+        for (int slot = 0; slot < SLOT_COUNT && count > 0; slot++) {
+            if ((taken & (1L << slot)) == 0L && base.getItem(slot) == null && (observed == null || observed[slot] == null)) {
+                free |= 1L << slot;
+                count--;
+            }
+        }
+        return count == 0 ? free : 0L;
+    }
+
+    private static boolean matches(GroupSnapshot snapshot, long[] fingerprints) {
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if (snapshot.getFingerprint(slot) != fingerprints[slot]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 清空组背包，返回清空前的版本；清空后的版本号为其加一。
+     * 内容未驻留内存或已经为空时不产生新版本，返回 null，并发的多次清空因此只有一次得到原有内容
+     */
+    public GroupSnapshot clear() {
+        while (true) {
+            GroupSnapshot base = current.get();
+            if (base == null || base.isEmpty()) return null;
+            if (current.compareAndSet(base, GroupSnapshot.empty(base.getVersion() + 1))) {
+                return base;
+            }
+        }
+    }
+
+    /**
+     * 把组背包整体替换为给定内容（历史回溯），返回带新版本号的增量，内容相同或未驻留内存时返回空增量
+     */
+    SlotDelta restore(ItemStack[] items) {
+        ItemStack[] target = new ItemStack[SLOT_COUNT];
+        long[] targetFingerprints = new long[SLOT_COUNT];
+        boolean[] touched = new boolean[SLOT_COUNT];
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            target[slot] = slot < items.length ? normalize(items[slot]) : null;
+            targetFingerprints[slot] = GroupSnapshot.fingerprint(target[slot]);
+            touched[slot] = true;
+        }
+        return replaceSlots(touched, target, targetFingerprints);
+    }
+
+    /**
+     * 把其他服务器提交的增量按槽位合并为新版本：本服没有改过的槽位以增量为准，
+     * 两边都改过的同种物品叠加双方的数量变化，超出最大堆叠的部分移到空槽位；
+     * 两边放入不同的物品时，remoteFirst 一方的物品留在槽位中，另一方的移到空槽位。
+     * 两台服务器对同一对增量作出相同的选择，收到对方的增量后内容一致。
+     * 组背包没有足够的空槽位时，移不下的物品交给 discarded。
+     * 返回实际变化的槽位，内容相同或未驻留内存时返回空增量
+     *
+     * @param remoteFirst 不同物品争用同一槽位时是否保留增量的物品
+     */
+    SlotDelta merge(SlotDelta delta, boolean remoteFirst, Consumer<ItemStack> discarded) {
+        if (!delta.hasPrevious()) {
+            throw new IllegalArgumentException("A merged delta needs the previous items");
+        }
+        long touched = 0L;
+        for (int i = 0; i < delta.size(); i++) {
+            touched |= 1L << delta.slotAt(i);
+        }
+
+        while (true) {
+            GroupSnapshot base = current.get();
+            if (base == null) return SlotDelta.EMPTY;
+
+            int[] slots = new int[SLOT_COUNT];
+            ItemStack[] changed = new ItemStack[SLOT_COUNT];
+            long[] changedFingerprints = new long[SLOT_COUNT];
+            ItemStack[] previous = new ItemStack[SLOT_COUNT];
+            int size = 0;
+            long placed = 0L;
+            List<ItemStack> lost = null;
+            for (int i = 0; i < delta.size(); i++) {
+                int slot = delta.slotAt(i);
+                ItemStack next = normalize(delta.itemAt(i));
+                ItemStack before = normalize(delta.previousAt(i));
+                ItemStack local = base.getItem(slot);
+
+                ItemStack item = next;
+                ItemStack displaced = null;
+                if (!sameItem(local, before)) {
+                    // 本服在来源服务器提交之前也改过这个槽位；两边的改动相同时同样叠加，各自放入的物品都保留
+                    if (similar(local, next) && similar(local, before) && similar(next, before)) {
+                        ItemStack kind = next != null ? next : local;
+                        int amount = Math.max(0, amountOf(local) + amountOf(next) - amountOf(before));
+                        int maxStack = kind.getMaxStackSize();
+                        if (amount > maxStack) {
+                            displaced = withAmount(kind, amount - maxStack);
+                            amount = maxStack;
+                        }
+                        item = amount == 0 ? null : withAmount(kind, amount);
+                    } else if (next == null) {
+                        // 来源服务器拿走了原来的物品，本服换成了别的物品：保留本服的
+                        continue;
+                    } else if (local != null) {
+                        item = remoteFirst ? next : local;
+                        displaced = remoteFirst ? local : next;
+                    }
+                }
+
+                if (displaced != null) {
+                    int maxStack = displaced.getMaxStackSize();
+                    int parts = (displaced.getAmount() + maxStack - 1) / maxStack;
+                    long targets = freeSlots(parts, touched | placed, base, null);
+                    if (targets == 0L) {
+                        if (lost == null) {
+                            lost = new ArrayList<>();
+                        }
+                        lost.add(displaced);
+                    }
+                    int remaining = displaced.getAmount();
+                    for (int target = 0; target < SLOT_COUNT; target++) {
+                        if ((targets & (1L << target)) == 0L) continue;
+                        ItemStack part = withAmount(displaced, Math.min(remaining, maxStack));
+                        remaining -= part.getAmount();
+                        slots[size] = target;
+                        changed[size] = part;
+                        changedFingerprints[size] = GroupSnapshot.fingerprint(part);
+                        previous[size] = null;
+                        size++;
+                    }
+                    placed |= targets;
+                }
+
+                long fingerprint = GroupSnapshot.fingerprint(item);
+                if (fingerprint == base.getFingerprint(slot) && sameItem(item, local)) continue;
+                slots[size] = slot;
+                changed[size] = item;
+                changedFingerprints[size] = fingerprint;
+                previous[size] = local;
+                size++;
+            }
+
+            SlotDelta applied = SlotDelta.EMPTY;
+            if (size > 0) {
+                GroupSnapshot updated = base.withSlots(base.getVersion() + 1, slots, changed, changedFingerprints, size);
+                if (!current.compareAndSet(base, updated)) continue;
+                applied = new SlotDelta(slots, changed, changedFingerprints, previous, size, updated);
+            }
+            if (lost != null) {
+                lost.forEach(discarded);
+            }
+            return applied;
+        }
+    }
+
+    private SlotDelta replaceSlots(boolean[] touched, ItemStack[] target, long[] targetFingerprints) {
+        while (true) {
+            GroupSnapshot base = current.get();
+            if (base == null) return SlotDelta.EMPTY;
+
+            int[] slots = new int[SLOT_COUNT];
+            ItemStack[] changed = new ItemStack[SLOT_COUNT];
+            long[] changedFingerprints = new long[SLOT_COUNT];
+            ItemStack[] previous = new ItemStack[SLOT_COUNT];
+            int size = 0;
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                if (!touched[slot] || targetFingerprints[slot] == base.getFingerprint(slot)) continue;
+                slots[size] = slot;
+                changed[size] = target[slot];
+                changedFingerprints[size] = targetFingerprints[slot];
+                previous[size] = base.getItem(slot);
+                size++;
+            }
+            if (size == 0) return SlotDelta.EMPTY;
+
+            GroupSnapshot updated = base.withSlots(base.getVersion() + 1, slots, changed, changedFingerprints, size);
+            if (current.compareAndSet(base, updated)) {
+                return new SlotDelta(slots, changed, changedFingerprints, previous, size, updated);
+            }
+        }
+    }
+
+    /**
+     * 日志重放：只应用比当前版本新的增量，只在加载阶段且内容已驻留时调用
+     */
+    void replay(SlotDelta delta) {
+        GroupSnapshot base = current.get();
+        if (delta.getVersion() <= base.getVersion()) return;
+
+        int[] slots = new int[delta.size()];
+        ItemStack[] items = new ItemStack[delta.size()];
+        long[] fingerprints = new long[delta.size()];
+        for (int i = 0; i < delta.size(); i++) {
+            slots[i] = delta.slotAt(i);
+            items[i] = normalize(delta.itemAt(i));
+            fingerprints[i] = GroupSnapshot.fingerprint(items[i]);
+        }
+        current.set(base.withSlots(delta.getVersion(), slots, items, fingerprints, delta.size()));
+    }
+
+    /**
+     * 日志重放：清空记录，只在加载阶段调用
+     */
+    void replayClear(long version) {
+        if (version > current.get().getVersion()) {
+            current.set(GroupSnapshot.empty(version));
+        }
+    }
+
+    /**
+     * 玩家和其他成员并发改动同一槽位后的数量：当前数量加上玩家相对其所见状态的变化，
+     * 可能超过最大堆叠数，由 capture 把超出部分移到空槽位。两边不是同一种物品、或玩家所见状态不是这种物品时返回 -1
+     *
+     * @param observed     玩家背包中的物品
+     * @param currentItem  组背包当前版本的物品
+     * @param seenFingerprint 玩家所见状态的指纹
+     * @param seenAmount   玩家所见状态的数量
+     */
+    private static int mergedAmount(ItemStack observed, ItemStack currentItem, long seenFingerprint, int seenAmount) {
+        if (observed != null && currentItem != null && !observed.isSimilar(currentItem)) return -1;
+        ItemStack kind = observed != null ? observed : currentItem;
+        if (seenFingerprint != GroupSnapshot.EMPTY_FINGERPRINT
+                && (seenAmount <= 0 || GroupSnapshot.fingerprint(withAmount(kind, seenAmount)) != seenFingerprint)) {
+            return -1;
+        }
+        int amount = amountOf(currentItem) + amountOf(observed) - (seenFingerprint == GroupSnapshot.EMPTY_FINGERPRINT ? 0 : seenAmount);
+        return Math.max(0, amount);
+    }
+
+    private static ItemStack withAmount(ItemStack item, int amount) {
+        ItemStack copy = item.clone();
+        copy.setAmount(amount);
+        return copy;
+    }
+
+    private static int amountOf(ItemStack item) {
+        return item == null ? 0 : item.getAmount();
+    }
+
+    private static ItemStack normalize(ItemStack item) {
+        if (item == null || item.getType().isAir() || item.getAmount() <= 0) {
+            return null;
+        }
+        return item;
+    }
+}
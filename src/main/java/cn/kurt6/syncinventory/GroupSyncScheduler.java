@@ -0,0 +1,212 @@
+package cn.kurt6.syncinventory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 按组合并的同步调度器
+ * 事件只把所在组标记为脏，由每tick运行一次的任务统一刷新，
+ * 同一组在一个tick内无论触发多少次，每个操作过的玩家都只捕获并分发一次。
+ * 每tick的同步工作受 SyncBudget 限制：先提交各组操作者的改动，再更新其他成员，
+ * 预算用完后剩余的脏组和分发留到之后的tick，每tick至少各处理一项以保证进度
+ */
+public class GroupSyncScheduler {
+
+    private static final Comparator<DirtyGroup> PRIORITY_ORDER =
+            (a, b) -> Integer.compare(b.priority, a.priority);
+
+    private final SyncInventory plugin;
+    private final Map<String, DirtyGroup> groups = new ConcurrentHashMap<>();
+    private final Queue<DirtyGroup> dirtyQueue = new ConcurrentLinkedQueue<>();
+    // 因预算用完而顺延的成员分发，按提交顺序执行
+    private final Queue<Runnable> deferredFanOuts = new ConcurrentLinkedQueue<>();
+    private final SyncBudget budget = new SyncBudget();
+
+    // 仅在刷新任务中使用，复用以避免每tick分配
+    private final List<DirtyGroup> dueGroups = new ArrayList<>();
+
+    private volatile long currentTick;
+    private PlatformScheduler scheduler;
+    private PlatformScheduler.Task tickTask;
+
+    public GroupSyncScheduler(SyncInventory plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * 每个组的脏标记，组存在期间复用同一个对象
+     */
+    private static final class DirtyGroup {
+        final String groupName;
+        // 本轮登记过推送的会话，按登记顺序捕获，保证每个玩家的改动都被收集
+        final List<PlayerSyncSession> sources = new ArrayList<>(2);
+        boolean queued;
+        long dueTick;
+        int priority;
+
+        DirtyGroup(String groupName) {
+            this.groupName = groupName;
+        }
+    }
+
+    /**
+     * 标记组背包需要从该会话的玩家同步，在策略延迟到期后的刷新中执行
+     */
+    public void markDirty(PlayerSyncSession session, SyncPolicy policy) {
+        GroupState group = session.getGroup();
+        if (group == null) return;
+
+        DirtyGroup dirty = groups.computeIfAbsent(group.getName(), DirtyGroup::new);
+        long due = currentTick + budget.widen(policy.getDelay());
+        int priority = policy.getPriority().ordinal();
+
+        synchronized (dirty) {
+            if (!dirty.sources.contains(session)) {
+                dirty.sources.add(session);
+            }
+            if (!dirty.queued) {
+                dirty.queued = true;
+                dirty.dueTick = due;
+                dirty.priority = priority;
+                dirtyQueue.add(dirty);
+            } else {
+                dirty.dueTick = Math.min(dirty.dueTick, due);
+                dirty.priority = Math.max(dirty.priority, priority);
+            }
+        }
+    }
+
+    /**
+     * 组被删除时移除其脏标记
+     */
+    public void forget(String groupName) {
+        DirtyGroup dirty = groups.remove(groupName);
+        if (dirty != null) {
+            synchronized (dirty) {
+                dirty.sources.clear();
+            }
+        }
+    }
+
+    /**
+     * 把成员分发交给调度器：预算未用完且没有更早的分发在排队时立即执行，否则顺延
+     */
+    public void submitFanOut(Runnable fanOut) {
+        if (budget.isExhausted() || !deferredFanOuts.isEmpty()) {
+            deferredFanOuts.add(fanOut);
+        } else {
+            fanOut.run();
+        }
+    }
+
+    public SyncBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * 顺延到之后tick的分发数
+     */
+    public int getDeferredFanOuts() {
+        return deferredFanOuts.size();
+    }
+
+    public void start() {
+        scheduler = plugin.getPlatformScheduler();
+        configure();
+        tickTask = scheduler.runGlobalTimer(this::tick, 1L, 1L);
+    }
+
+    /**
+     * 从配置读取每tick预算和合并延迟的放宽上限，启动和重载配置时调用
+     */
+    public void configure() {
+        budget.configure(plugin.getConfig().getDouble("settings.sync-tick-budget-ms", 5D),
+                plugin.getConfig().getInt("settings.sync-max-debounce-factor", 4));
+    }
+
+    public void stop() {
+        if (tickTask != null) {
+            tickTask.cancel();
+            tickTask = null;
+            if (!scheduler.isFolia()) {
+                // 非Folia服务器在主线程上，可直接刷新剩余的脏组
+                currentTick = Long.MAX_VALUE;
+                budget.configure(0D, 1);
+                drain();
+                runDeferredFanOuts();
+            }
+        }
+        dirtyQueue.clear();
+        deferredFanOuts.clear();
+        groups.clear();
+    }
+
+    private void tick() {
+        currentTick++;
+        budget.startTick();
+        drain();
+        runDeferredFanOuts();
+    }
+
+    private void runDeferredFanOuts() {
+        Runnable fanOut;
+        boolean first = true;
+        while ((first || !budget.isExhausted()) && (fanOut = deferredFanOuts.poll()) != null) {
+            fanOut.run();
+            first = false;
+        }
+    }
+
+    private void drain() {
+        long now = currentTick;
+        int pending = dirtyQueue.size();
+        for (int i = 0; i < pending; i++) {
+            DirtyGroup dirty = dirtyQueue.poll();
+            if (dirty == null) break;
+            boolean due;
+            synchronized (dirty) {
+                due = dirty.dueTick <= now;
+            }
+            if (due) {
+                dueGroups.add(dirty);
+            } else {
+                dirtyQueue.add(dirty);
+            }
+        }
+        if (dueGroups.isEmpty()) return;
+
+        dueGroups.sort(PRIORITY_ORDER);
+        for (int i = 0; i < dueGroups.size(); i++) {
+            DirtyGroup dirty = dueGroups.get(i);
+            if (i > 0 && budget.isExhausted()) {
+                // 剩余的组仍然到期，在之后的tick中优先刷新
+                dirtyQueue.add(dirty);
+                continue;
+            }
+            PlayerSyncSession[] sources;
+            synchronized (dirty) {
+                sources = dirty.sources.toArray(new PlayerSyncSession[0]);
+                dirty.sources.clear();
+                dirty.queued = false;
+            }
+            for (PlayerSyncSession source : sources) {
+                flush(source);
+            }
+        }
+        dueGroups.clear();
+    }
+
+    private void flush(PlayerSyncSession source) {
+        // 先清除登记，捕获期间的新事件进入下一轮
+        source.clearPending();
+        if (!source.getPlayer().isOnline()) return;
+
+        // 背包只能在玩家所在线程读取
+        scheduler.execute(source.getPlayer(), () -> plugin.syncInventoryFromPlayer(source));
+    }
+}
@@ -1,6 +1,5 @@
 package cn.kurt6.syncinventory;
 
-import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -11,9 +10,7 @@ import org.bukkit.event.enchantment.PrepareItemEnchantEvent;
 import org.bukkit.event.inventory.*;
 import org.bukkit.event.player.*;
 import org.bukkit.inventory.AnvilInventory;
-import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.entity.ProjectileLaunchEvent;
 import org.bukkit.entity.Projectile;
@@ -25,37 +22,27 @@ public class InventoryListener implements Listener {
 
     private final SyncInventory plugin;
 
-    // 防止重复同步的玩家集合
-    private final Set<UUID> syncingPlayers = new HashSet<>();
+    private final SyncPolicyRegistry policies;
+    private final GroupSyncScheduler syncScheduler;
+    private final PlatformScheduler scheduler;
 
     public InventoryListener(SyncInventory plugin) {
         this.plugin = plugin;
+        this.policies = plugin.getSyncPolicies();
+        this.syncScheduler = plugin.getSyncScheduler();
+        this.scheduler = plugin.getPlatformScheduler();
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
-        if (!plugin.isInGroup(player)) {
+        PlayerSyncSession session = plugin.openSession(player);
+        if (session.getGroup() == null) {
             return;
         }
 
         // 延迟同步，确保玩家完全加载
-        if (plugin.isFolia()) {
-            player.getScheduler().runDelayed(plugin, task -> {
-                if (player.isOnline() && plugin.isInGroup(player)) {
-                    plugin.syncInventoryToGroup(player, plugin.getPlayerGroup(player));
-                }
-            }, null, 5L);
-        } else {
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    if (player.isOnline() && plugin.isInGroup(player)) {
-                        plugin.syncInventoryToGroup(player, plugin.getPlayerGroup(player));
-                    }
-                }
-            }.runTaskLater(plugin, 5L);
-        }
+        schedulePull(session, policies.get(SyncTrigger.PLAYER_JOIN));
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
@@ -63,14 +50,12 @@ public class InventoryListener implements Listener {
         Player player = event.getPlayer();
         UUID playerId = player.getUniqueId();
 
-        if (plugin.isInGroup(player)) {
+        PlayerSyncSession session = plugin.closeSession(playerId);
+        if (session != null && session.getGroup() != null) {
             // 玩家退出时立即同步背包状态
-            plugin.syncInventoryFromPlayer(player);
+            plugin.syncInventoryFromPlayer(session);
         }
 
-        // 清理同步标记和待确认加入状态
-        syncingPlayers.remove(playerId);
-
         // 清理超时的待确认加入（如果存在）
         plugin.cleanupPendingJoin(playerId);
     }
@@ -80,7 +65,6 @@ public class InventoryListener implements Listener {
         if (!(event.getWhoClicked() instanceof Player)) return;
 
         Player player = (Player) event.getWhoClicked();
-        if (!plugin.isInGroup(player)) return;
 
         // 只处理玩家背包的点击事件
         if (event.getInventory().getType() != InventoryType.PLAYER &&
@@ -89,13 +73,8 @@ public class InventoryListener implements Listener {
             return;
         }
 
-        // 防止在同步过程中再次触发同步
-        if (syncingPlayers.contains(player.getUniqueId())) {
-            return;
-        }
-
         // 延迟同步，确保点击操作完成
-        scheduleSync(player);
+        scheduleSync(player, policies.get(SyncTrigger.INVENTORY_CLICK));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
@@ -103,154 +82,82 @@ public class InventoryListener implements Listener {
         if (!(event.getPlayer() instanceof Player)) return;
 
         Player player = (Player) event.getPlayer();
-        if (!plugin.isInGroup(player)) return;
 
         // 关闭背包时同步
-        scheduleSync(player);
+        scheduleSync(player, policies.get(SyncTrigger.INVENTORY_CLOSE));
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onInventoryOpen(InventoryOpenEvent event) {
         if (!(event.getPlayer() instanceof Player)) return;
 
-        Player player = (Player) event.getPlayer();
-        if (!plugin.isInGroup(player)) return;
+        PlayerSyncSession session = plugin.getSession((Player) event.getPlayer());
+        if (session == null || session.getGroup() == null) return;
 
         // 打开背包时确保数据是最新的
-        if (plugin.isFolia()) {
-            player.getScheduler().run(plugin, task -> {
-                if (player.isOnline() && plugin.isInGroup(player)) {
-                    plugin.syncInventoryToGroup(player, plugin.getPlayerGroup(player));
-                }
-            }, null);
-        } else {
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    if (player.isOnline() && plugin.isInGroup(player)) {
-                        plugin.syncInventoryToGroup(player, plugin.getPlayerGroup(player));
-                    }
-                }
-            }.runTaskLater(plugin, 0L);
-        }
+        schedulePull(session, policies.get(SyncTrigger.INVENTORY_OPEN));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerDropItem(PlayerDropItemEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            scheduleSync(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.DROP_ITEM));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerPickupItem(PlayerPickupItemEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            scheduleSync(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.PICKUP_ITEM));
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
     public void onPlayerRespawn(PlayerRespawnEvent event) {
-        Player player = event.getPlayer();
-        if (!plugin.isInGroup(player)) return;
+        PlayerSyncSession session = plugin.getSession(event.getPlayer());
+        if (session == null || session.getGroup() == null) return;
 
         // 重生后恢复组背包
-        if (plugin.isFolia()) {
-            player.getScheduler().runDelayed(plugin, task -> {
-                if (player.isOnline() && plugin.isInGroup(player)) {
-                    plugin.syncInventoryToGroup(player, plugin.getPlayerGroup(player));
-                }
-            }, null, 1L);
-        } else {
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    if (player.isOnline() && plugin.isInGroup(player)) {
-                        plugin.syncInventoryToGroup(player, plugin.getPlayerGroup(player));
-                    }
-                }
-            }.runTaskLater(plugin, 1L);
-        }
+        schedulePull(session, policies.get(SyncTrigger.PLAYER_RESPAWN));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerDeath(PlayerDeathEvent event) {
         Player player = event.getEntity();
-        if (!plugin.isInGroup(player)) return;
-
-        // 1. 备份当前共享背包内容
-        String groupName = plugin.getPlayerGroup(player);
-        if (groupName == null) return;
-
-        Inventory groupInv = plugin.groupInventories.get(groupName);
-        if (groupInv == null) return;
-
-        ItemStack[] groupContents = groupInv.getContents().clone();
-
-        // 2. 立即清空共享背包和所有在线成员的背包
-        synchronized (plugin.syncLock) {
-            groupInv.clear();
-
-            Set<UUID> members = plugin.groupMembers.get(groupName);
-            if (members != null) {
-                for (UUID memberId : members) {
-                    Player member = Bukkit.getPlayer(memberId);
-                    if (member != null && member.isOnline()) {
-                        member.getInventory().clear();
-                        member.updateInventory();
-                    }
-                }
+        PlayerSyncSession session = plugin.getSession(player);
+        if (session == null) return;
+
+        GroupState group = session.getGroup();
+        if (group == null || plugin.ensureResident(group) == null) return;
+
+        // 保留背包时玩家不掉落物品，共享背包也保持不变
+        if (event.getKeepInventory()) return;
+
+        // 1. 先提交死亡玩家尚未推送的改动，使其计入共享背包的掉落
+        plugin.syncInventoryFromPlayer(session);
+
+        // 2. 玩家背包中的共享槽位不按原样掉落，装备和副手照常掉落
+        List<ItemStack> drops = event.getDrops();
+        for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+            ItemStack item = player.getInventory().getItem(slot);
+            if (item != null) {
+                drops.remove(item);
             }
         }
 
-        // 3. 修改死亡掉落 - 只掉落一份共享背包物品
-        if (event.getDrops() != null && !event.getDrops().isEmpty()) {
-            // 如果是第一个死亡的玩家，掉落共享背包内容
-            // 使用原子标记确保只有第一个死亡玩家会掉落物品
-            if (plugin.deathMarkers.add(groupName)) {
-                // 延迟1tick确保其他死亡处理完成
-                if (plugin.isFolia()) {
-                    player.getScheduler().runDelayed(plugin, task -> {
-                        try {
-                            List<ItemStack> drops = event.getDrops();
-                            drops.clear(); // 清空原有掉落
-                            drops.addAll(Arrays.asList(groupContents)); // 添加共享背包物品
-                        } finally {
-                            plugin.deathMarkers.remove(groupName); // 清理标记
-                        }
-                    }, null, 1L);
-                } else {
-                    new BukkitRunnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                List<ItemStack> drops = event.getDrops();
-                                drops.clear(); // 清空原有掉落
-                                drops.addAll(Arrays.asList(groupContents)); // 添加共享背包物品
-                            } finally {
-                                plugin.deathMarkers.remove(groupName); // 清理标记
-                            }
-                        }
-                    }.runTaskLater(plugin, 1L);
-                }
-            } else {
-                // 后续死亡的玩家不掉落共享背包物品
-                event.getDrops().clear();
+        // 3. 以一个新版本清空共享背包，成员背包在各自线程上清空；
+        // 同一批死亡中只有第一次清空得到原有内容，由该玩家在事件内掉落一份
+        GroupSnapshot previous = plugin.clearGroup(group, true);
+        if (previous == null) return;
+        for (ItemStack item : previous.toArray()) {
+            if (item != null) {
+                drops.add(item.clone());
             }
         }
-
-        plugin.markDataModified();
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onItemDamage(PlayerItemDamageEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            // 立即同步，不延迟
-            plugin.syncInventoryFromPlayer(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.ITEM_DAMAGE));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
@@ -258,38 +165,27 @@ public class InventoryListener implements Listener {
         Projectile projectile = event.getEntity();
         if (projectile instanceof Arrow && projectile.getShooter() instanceof Player) {
             Player player = (Player) projectile.getShooter();
-            if (plugin.isInGroup(player)) {
-                // 立即同步，不延迟
-                plugin.syncInventoryFromPlayer(player);
-            }
+            scheduleSync(player, policies.get(SyncTrigger.PROJECTILE_LAUNCH));
         }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPlace(BlockPlaceEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            // 立即同步，不延迟
-            plugin.syncInventoryFromPlayer(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.BLOCK_PLACE));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onItemConsume(PlayerItemConsumeEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            // 立即同步
-            plugin.syncInventoryFromPlayer(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.ITEM_CONSUME));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onInventoryInteract(InventoryInteractEvent event) {
         if (event.getWhoClicked() instanceof Player) {
             Player player = (Player) event.getWhoClicked();
-            if (plugin.isInGroup(player)) {
-                scheduleSync(player);
-            }
+            scheduleSync(player, policies.get(SyncTrigger.INVENTORY_INTERACT));
         }
     }
 
@@ -297,9 +193,7 @@ public class InventoryListener implements Listener {
     public void onTradeSelect(TradeSelectEvent event) {
         if (event.getWhoClicked() instanceof Player) {
             Player player = (Player) event.getWhoClicked();
-            if (plugin.isInGroup(player)) {
-                scheduleSync(player);
-            }
+            scheduleSync(player, policies.get(SyncTrigger.TRADE_SELECT));
         }
     }
 
@@ -307,9 +201,7 @@ public class InventoryListener implements Listener {
     public void onCraftItem(CraftItemEvent event) {
         if (event.getWhoClicked() instanceof Player) {
             Player player = (Player) event.getWhoClicked();
-            if (plugin.isInGroup(player)) {
-                scheduleSync(player);
-            }
+            scheduleSync(player, policies.get(SyncTrigger.CRAFT_ITEM));
         }
     }
 
@@ -317,35 +209,27 @@ public class InventoryListener implements Listener {
     public void onPrepareAnvil(PrepareAnvilEvent event) {
         if (event.getView().getPlayer() instanceof Player) {
             Player player = (Player) event.getView().getPlayer();
-            if (plugin.isInGroup(player)) {
-                scheduleSync(player);
-            }
+            scheduleSync(player, policies.get(SyncTrigger.PREPARE_ANVIL));
         }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBucketUse(PlayerBucketEmptyEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            scheduleSync(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.BUCKET_EMPTY));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBucketFill(PlayerBucketFillEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            scheduleSync(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.BUCKET_FILL));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onInventoryDrag(InventoryDragEvent event) {
         if (event.getWhoClicked() instanceof Player) {
             Player player = (Player) event.getWhoClicked();
-            if (plugin.isInGroup(player)) {
-                scheduleSync(player);
-            }
+            scheduleSync(player, policies.get(SyncTrigger.INVENTORY_DRAG));
         }
     }
 
@@ -353,85 +237,69 @@ public class InventoryListener implements Listener {
     public void onCreativeInventory(InventoryCreativeEvent event) {
         if (event.getWhoClicked() instanceof Player) {
             Player player = (Player) event.getWhoClicked();
-            if (plugin.isInGroup(player)) {
-                scheduleSync(player);
-            }
+            scheduleSync(player, policies.get(SyncTrigger.CREATIVE_INVENTORY));
         }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerInteract(PlayerInteractEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player) && event.getItem() != null) {
-            scheduleSync(player);
+        if (event.getItem() != null) {
+            scheduleSync(player, policies.get(SyncTrigger.PLAYER_INTERACT));
         }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerInteractEntity(PlayerInteractEntityEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player) && player.getInventory().getItemInMainHand() != null) {
-            scheduleSync(player);
+        if (player.getInventory().getItemInMainHand() != null) {
+            scheduleSync(player, policies.get(SyncTrigger.INTERACT_ENTITY));
         }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onEnchantItem(EnchantItemEvent event) {
         Player player = event.getEnchanter();
-        if (plugin.isInGroup(player)) {
-            scheduleSync(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.ENCHANT_ITEM));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onFurnaceExtract(FurnaceExtractEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            scheduleSync(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.FURNACE_EXTRACT));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPrepareEnchant(PrepareItemEnchantEvent event) {
         Player player = event.getEnchanter();
-        if (plugin.isInGroup(player)) {
-            scheduleSync(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.PREPARE_ENCHANT));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPrepareCraft(PrepareItemCraftEvent event) {
         if (event.getView().getPlayer() instanceof Player) {
             Player player = (Player) event.getView().getPlayer();
-            if (plugin.isInGroup(player)) {
-                scheduleSync(player);
-            }
+            scheduleSync(player, policies.get(SyncTrigger.PREPARE_CRAFT));
         }
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onExpChange(PlayerExpChangeEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            scheduleSync(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.EXP_CHANGE));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onRiptide(PlayerRiptideEvent event) {
         Player player = event.getPlayer();
-        if (plugin.isInGroup(player)) {
-            scheduleSync(player);
-        }
+        scheduleSync(player, policies.get(SyncTrigger.RIPTIDE));
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerFish(PlayerFishEvent event) {
         if (event.getState() == PlayerFishEvent.State.CAUGHT_FISH) {
             Player player = event.getPlayer();
-            if (plugin.isInGroup(player)) {
-                scheduleSync(player);
-            }
+            scheduleSync(player, policies.get(SyncTrigger.PLAYER_FISH));
         }
     }
 
@@ -440,55 +308,52 @@ public class InventoryListener implements Listener {
         if (event.getInventory() instanceof AnvilInventory &&
                 event.getWhoClicked() instanceof Player) {
             Player player = (Player) event.getWhoClicked();
-            if (plugin.isInGroup(player) &&
-                    event.getSlotType() == InventoryType.SlotType.RESULT) {
-                scheduleSync(player);
+            if (event.getSlotType() == InventoryType.SlotType.RESULT) {
+                scheduleSync(player, policies.get(SyncTrigger.ANVIL_USE));
             }
         }
     }
 
     /**
-     * 调度延迟同步任务
+     * 按事件策略把玩家所在组标记为待同步，由合并调度器统一刷新
      */
-    private void scheduleSync(Player player) {
-        UUID playerId = player.getUniqueId();
-
-        if (syncingPlayers.contains(playerId)) {
+    private void scheduleSync(Player player, SyncPolicy policy) {
+        if (!policy.isEnabled()) {
             return;
         }
 
-        syncingPlayers.add(playerId);
+        PlayerSyncSession session = plugin.getSession(player);
+        if (session == null || session.getGroup() == null) {
+            return;
+        }
+        plugin.getMetrics().trigger(policy.getTrigger()).increment();
 
-        long delay = 0L; // 默认立即执行
+        // 同等或更高优先级的推送已在排队时直接跳过
+        if (session.markPending(policy.getPriority())) {
+            syncScheduler.markDirty(session, policy);
+        }
+    }
 
-        // 对于特定事件为1 tick延迟
-        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-        for (StackTraceElement element : stackTrace) {
-            String methodName = element.getMethodName();
-            if (methodName.equals("onInventoryClick")) {
-                delay = 1L;
-                break;
-            }
+    /**
+     * 按事件策略调度从组背包到玩家的同步
+     */
+    private void schedulePull(PlayerSyncSession session, SyncPolicy policy) {
+        if (!policy.isEnabled()) {
+            return;
         }
+        plugin.getMetrics().trigger(policy.getTrigger()).increment();
 
-        if (plugin.isFolia()) {
-            // 确保Folia上至少1 tick延迟
-            player.getScheduler().runDelayed(plugin, task -> {
-                syncingPlayers.remove(playerId);
-                if (player.isOnline() && plugin.isInGroup(player)) {
-                    plugin.syncInventoryFromPlayer(player);
-                }
-            }, null, Math.max(1L, delay)); // 确保最小延迟为1
-        } else {
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    syncingPlayers.remove(playerId);
-                    if (player.isOnline() && plugin.isInGroup(player)) {
-                        plugin.syncInventoryFromPlayer(player);
-                    }
-                }
-            }.runTaskLater(plugin, delay);
+        if (policy.isImmediate()) {
+            plugin.syncInventoryToPlayer(session);
+            return;
         }
+
+        // 服务器卡顿时放宽延迟，期间的更新由同一次拉取带上
+        Player player = session.getPlayer();
+        scheduler.runLater(player, () -> {
+            if (player.isOnline()) {
+                plugin.syncInventoryToPlayer(session);
+            }
+        }, syncScheduler.getBudget().widen(policy.getDelay()));
     }
 }
\ No newline at end of file
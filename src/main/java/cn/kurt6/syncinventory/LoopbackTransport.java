@@ -0,0 +1,54 @@
+package cn.kurt6.syncinventory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 进程内传输，同一频道的各个端点互相投递批次
+ * 只在同一个 JVM 中有效，用于测试和基准
+ */
+public final class LoopbackTransport implements SyncTransport {
+
+    // 频道名 -> 该频道上打开的端点
+    private static final Map<String, Set<LoopbackTransport>> CHANNELS = new ConcurrentHashMap<>();
+
+    private final String channel;
+    private final Queue<byte[]> inbox = new ConcurrentLinkedQueue<>();
+
+    public LoopbackTransport(String channel) {
+        this.channel = channel;
+        CHANNELS.computeIfAbsent(channel, name -> ConcurrentHashMap.newKeySet()).add(this);
+    }
+
+    @Override
+    public void publish(byte[] batch) {
+        for (LoopbackTransport endpoint : CHANNELS.getOrDefault(channel, Set.of())) {
+            if (endpoint != this) {
+                endpoint.inbox.add(batch);
+            }
+        }
+    }
+
+    @Override
+    public List<byte[]> receive() {
+        List<byte[]> batches = new ArrayList<>();
+        byte[] batch;
+        while ((batch = inbox.poll()) != null) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    @Override
+    public void close() {
+        Set<LoopbackTransport> endpoints = CHANNELS.get(channel);
+        if (endpoints != null) {
+            endpoints.remove(this);
+        }
+    }
+}
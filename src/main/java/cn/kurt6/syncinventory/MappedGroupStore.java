@@ -0,0 +1,588 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * 内存映射的二进制组背包存储
+ * 每个组单独一个文件，文件头记录组名和已写入的版本号，之后是36个定长槽位，
+ * 槽位记录为长度、CRC32 校验和加 ItemStack#serializeAsBytes 的结果，单个槽位变化时原地覆盖写入，
+ * 写入中断的槽位读取时校验失败，按空槽位处理并由日志重放补回。
+ * 定长槽位使写入不必移动其他槽位，代价是每个槽位都按组内最大的物品占用空间：
+ * 新文件的槽位容量取能放下当前最大物品的2的幂（至少 512 字节，即约 18 KB 一个组），放不下时整体加倍重建。
+ * 启动时并行扫描文件头，组内容在首个成员上线时才映射读取，组被移出内存后释放映射；
+ * 读取、写入和释放都持有存储本身的锁，只有物品的反序列化在锁外进行，多个组可以并行读取
+ */
+public class MappedGroupStore implements Closeable {
+
+    private static final int MAGIC = 0x53494E56; // "SINV"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 128;
+    private static final int NAME_OFFSET = 16;
+    private static final int VERSION_OFFSET = 120;
+    static final int MAX_NAME_BYTES = 100;
+    private static final int MIN_SLOT_CAPACITY = 512;
+    // 槽位记录头：长度和校验和
+    private static final int SLOT_HEADER = 2 * Integer.BYTES;
+    private static final int SLOT_COUNT = GroupState.SLOT_COUNT;
+    private static final String EXTENSION = ".dat";
+    // 槽位写入记录的初始值，表示该槽位在磁盘上的内容未知
+    private static final Object UNWRITTEN = new Object();
+
+    private final Path directory;
+    private final Logger logger;
+
+    // 组名 -> 组文件路径，包含尚未映射的组
+    private final Map<String, Path> paths = new HashMap<>();
+    // 组名 -> 已映射的组文件
+    private final Map<String, GroupFile> files = new HashMap<>();
+    // 组名 -> 已落盘的版本号和各槽位序列化后的总字节数，供内存回收判断
+    private final Map<String, Long> persistedVersions = new ConcurrentHashMap<>();
+    private final Map<String, Long> contentBytes = new ConcurrentHashMap<>();
+
+    private MappedGroupStore(Path directory, Logger logger) {
+        this.directory = directory;
+        this.logger = logger;
+    }
+
+    public static MappedGroupStore open(Path directory, Logger logger) throws IOException {
+        return open(directory, logger, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool 并行读取文件头的线程池
+     */
+    public static MappedGroupStore open(Path directory, Logger logger, ForkJoinPool pool) throws IOException {
+        Files.createDirectories(directory);
+        MappedGroupStore store = new MappedGroupStore(directory, logger);
+        List<Path> groupFiles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path path : stream) {
+                groupFiles.add(path);
+            }
+        }
+
+        // 只读文件头和槽位长度，不建立映射
+        List<Header> headers = invoke(pool, () -> groupFiles.parallelStream()
+                .map(path -> {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        return Header.read(channel);
+                    } catch (IOException e) {
+                        logger.warning("Skipping unreadable group file " + path.getFileName() + ": " + e.getMessage());
+                        return null;
+                    }
+                })
+                .collect(Collectors.toList()));
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = headers.get(i);
+            if (header == null) continue;
+            store.paths.put(header.name, groupFiles.get(i));
+            store.persistedVersions.put(header.name, header.version);
+            store.contentBytes.put(header.name, header.contentBytes);
+        }
+        return store;
+    }
+
+    /**
+     * 在指定线程池中执行并行任务，任务内的并行流使用该池的线程
+     */
+    static <T> T invoke(ForkJoinPool pool, Callable<T> task) throws IOException {
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return paths.isEmpty();
+    }
+
+    /**
+     * 已落盘的全部组名
+     */
+    public synchronized Set<String> groupNames() {
+        return new HashSet<>(paths.keySet());
+    }
+
+    /**
+     * 映射并读取单个组的内容，组文件不存在时返回空的初始版本
+     */
+    public GroupSnapshot read(String groupName) throws IOException {
+        GroupFile file;
+        byte[][] slots = new byte[SLOT_COUNT][];
+        long version;
+        synchronized (this) {
+            file = files.get(groupName);
+            if (file == null) {
+                Path path = paths.get(groupName);
+                if (path == null) {
+                    return GroupSnapshot.empty(0L);
+                }
+                file = GroupFile.open(path);
+                files.put(groupName, file);
+            }
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                try {
+                    slots[slot] = file.readSlot(slot);
+                } catch (IOException e) {
+                    logger.warning("Failed to read slot " + slot + " of group " + groupName + ": " + e.getMessage());
+                }
+            }
+            version = file.buffer.getLong(VERSION_OFFSET);
+        }
+
+        ItemStack[] items = new ItemStack[SLOT_COUNT];
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if (slots[slot] == null) continue;
+            try {
+                items[slot] = ItemStack.deserializeBytes(slots[slot]);
+            } catch (Exception e) {
+                logger.warning("Failed to read slot " + slot + " of group " + groupName + ": " + e.getMessage());
+            }
+        }
+
+        synchronized (this) {
+            // 未驻留的组只会被删除而不会被写入，文件仍是同一个时其内容就是刚读出的版本
+            if (files.get(groupName) == file) {
+                file.written = Arrays.copyOf(items, SLOT_COUNT, Object[].class);
+            }
+        }
+        return new GroupSnapshot(version, items);
+    }
+
+    /**
+     * 读取全部组内容，用于迁移和基准测试
+     */
+    public Map<String, GroupSnapshot> readAll() throws IOException {
+        Map<String, GroupSnapshot> result = new LinkedHashMap<>();
+        for (String groupName : groupNames()) {
+            result.put(groupName, read(groupName));
+        }
+        return result;
+    }
+
+    /**
+     * 组被移出内存后释放其映射，之后的写入或读取会重新打开文件
+     */
+    public synchronized void release(String groupName) {
+        GroupFile file = files.remove(groupName);
+        if (file == null) return;
+        try {
+            file.close();
+        } catch (IOException e) {
+            logger.warning("Failed to release group file " + file.path.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 该组的这一版本是否已经写入磁盘
+     */
+    public boolean isPersisted(String groupName, long version) {
+        Long persisted = persistedVersions.get(groupName);
+        return persisted != null && persisted >= version;
+    }
+
+    /**
+     * 该组各槽位序列化后的总字节数，未落盘的组为 0
+     */
+    public long contentBytes(String groupName) {
+        return contentBytes.getOrDefault(groupName, 0L);
+    }
+
+    /**
+     * 写入发生变化的组：值为 null 的组删除其文件，其余只覆盖引用发生变化的槽位并落盘
+     */
+    public void write(Map<String, GroupSnapshot> groups) throws IOException {
+        for (Map.Entry<String, GroupSnapshot> entry : groups.entrySet()) {
+            // 逐组持锁，保存期间其他组的读取不必等待整批写完
+            synchronized (this) {
+                writeGroup(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void writeGroup(String groupName, GroupSnapshot snapshot) throws IOException {
+        GroupFile file = files.get(groupName);
+        Path path = paths.get(groupName);
+
+        if (snapshot == null) {
+            if (file == null && path != null) {
+                file = GroupFile.open(path);
+            }
+            if (file != null) {
+                // 先抹掉文件头，删除失败（如映射尚未释放）时加载阶段也会跳过该文件
+                file.buffer.putInt(0, 0);
+                file.close();
+                files.remove(groupName);
+                try {
+                    Files.deleteIfExists(file.path);
+                } catch (IOException e) {
+                    logger.warning("Failed to delete group file " + file.path.getFileName() + ": " + e.getMessage());
+                }
+            }
+            paths.remove(groupName);
+            persistedVersions.remove(groupName);
+            contentBytes.remove(groupName);
+            return;
+        }
+
+        if (file == null && path != null) {
+            // 尚未映射的组文件，各槽位的写入记录未知，写入前与磁盘上的内容比较
+            file = GroupFile.open(path);
+            files.put(groupName, file);
+        }
+        if (file != null && snapshot.getVersion() < file.buffer.getLong(VERSION_OFFSET)) {
+            // 同一组的版本号只会增加，回退说明组在本次保存之前被删除后重新创建，
+            // 重建文件而不是沿用旧组的内容
+            file = file.recreate();
+            files.put(groupName, file);
+        }
+
+        // 先序列化变化的槽位，按其中最大的物品确定槽位容量
+        Object[] written = file != null ? file.written : new Object[SLOT_COUNT];
+        byte[][] serialized = new byte[SLOT_COUNT][];
+        long changed = 0L;
+        int largest = 0;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            ItemStack item = snapshot.getItem(slot);
+            if (item == written[slot]) continue;
+            changed |= 1L << slot;
+            if (item != null) {
+                serialized[slot] = item.serializeAsBytes();
+                largest = Math.max(largest, serialized[slot].length);
+            }
+        }
+        int capacity = slotCapacity(largest);
+        if (file == null) {
+            file = GroupFile.create(directory.resolve(fileName(groupName)), groupName, capacity);
+            paths.put(groupName, file.path);
+            files.put(groupName, file);
+        } else if (capacity > file.slotCapacity) {
+            logger.info("Growing slot capacity of group " + groupName + " to " + capacity + " bytes");
+            file = file.rebuild(capacity);
+            files.put(groupName, file);
+        }
+
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            if ((changed & (1L << slot)) == 0L) continue;
+            // 内容相同的槽位（如刚打开的文件或数量改回原值）不再覆盖，只有真正变化的槽位会被原地写入，
+            // 这些变化都还在日志中，写入中断时可以重放
+            if (!file.holds(slot, serialized[slot])) {
+                file.writeSlot(slot, serialized[slot]);
+            }
+            file.written[slot] = snapshot.getItem(slot);
+        }
+        // 槽位先落盘再写版本号，版本号只会指向已完整写入的内容
+        file.buffer.force();
+        file.buffer.putLong(VERSION_OFFSET, snapshot.getVersion());
+        file.buffer.force(0, HEADER_SIZE);
+        persistedVersions.put(groupName, snapshot.getVersion());
+        contentBytes.put(groupName, file.contentBytes());
+    }
+
+    /**
+     * 能放下 largest 字节物品的槽位容量：不小于 MIN_SLOT_CAPACITY 的2的幂
+     */
+    private static int slotCapacity(int largest) {
+        int capacity = MIN_SLOT_CAPACITY;
+        while (largest > capacity - SLOT_HEADER) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (GroupFile file : files.values()) {
+            file.close();
+        }
+        files.clear();
+    }
+
+    /**
+     * 组名转为文件名，只含小写字母数字下划线的名字直接使用，其余按UTF-8十六进制编码，
+     * 避免大小写不敏感的文件系统上不同组名映射到同一个文件
+     */
+    private static String fileName(String groupName) {
+        return fileName(groupName, EXTENSION);
+    }
+
+    static String fileName(String groupName, String extension) {
+        if (groupName.matches("[a-z0-9][a-z0-9_]*")) {
+            return groupName + extension;
+        }
+        StringBuilder builder = new StringBuilder("_");
+        for (byte b : groupName.getBytes(StandardCharsets.UTF_8)) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.append(extension).toString();
+    }
+
+    /**
+     * 单个组的映射文件
+     */
+    private static final class GroupFile {
+        final Path path;
+        final String name;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final int slotCapacity;
+
+        // 最近一次写入各槽位的物品引用，快照中的物品不会被原地修改，引用不同即表示槽位已变化；
+        // 打开已有文件时为 UNWRITTEN，不等于任何物品（包括 null），保证每个槽位都被重写
+        Object[] written = new Object[SLOT_COUNT];
+
+        private GroupFile(Path path, String name, FileChannel channel, int slotCapacity) throws IOException {
+            this.path = path;
+            this.name = name;
+            this.channel = channel;
+            this.slotCapacity = slotCapacity;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(slotCapacity));
+        }
+
+        static GroupFile open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                Header header = Header.read(channel);
+                GroupFile file = new GroupFile(path, header.name, channel, header.slotCapacity);
+                Arrays.fill(file.written, UNWRITTEN);
+                return file;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        static GroupFile create(Path path, String name, int slotCapacity) throws IOException {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            if (nameBytes.length > MAX_NAME_BYTES) {
+                throw new IOException("Group name too long for store: " + name);
+            }
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            GroupFile file = new GroupFile(path, name, channel, slotCapacity);
+            file.buffer.putInt(0, MAGIC);
+            file.buffer.putInt(4, VERSION);
+            file.buffer.putInt(8, slotCapacity);
+            file.buffer.put(12, (byte) nameBytes.length);
+            file.buffer.put(NAME_OFFSET, nameBytes);
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                file.buffer.putInt(file.slotOffset(slot), 0);
+            }
+            return file;
+        }
+
+        /**
+         * 以新的槽位容量重写该组文件，写入临时文件后原子替换
+         */
+        GroupFile rebuild(int newCapacity) throws IOException {
+            byte[][] slots = new byte[SLOT_COUNT][];
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                try {
+                    slots[slot] = readSlot(slot);
+                } catch (IOException e) {
+                    // 已损坏的槽位无法恢复，重建后为空，下一次写入时按 written 记录重写
+                    written[slot] = UNWRITTEN;
+                }
+            }
+
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            GroupFile rebuilt = create(temp, name, newCapacity);
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                rebuilt.writeSlot(slot, slots[slot]);
+            }
+            rebuilt.buffer.force();
+            rebuilt.buffer.putLong(VERSION_OFFSET, buffer.getLong(VERSION_OFFSET));
+            rebuilt.close();
+            close();
+
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            GroupFile reopened = open(path);
+            reopened.written = written;
+            return reopened;
+        }
+
+        /**
+         * 以空的槽位重建该组文件，写入临时文件后原子替换
+         */
+        GroupFile recreate() throws IOException {
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            create(temp, name, MIN_SLOT_CAPACITY).close();
+            close();
+
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            GroupFile reopened = open(path);
+            reopened.written = new Object[SLOT_COUNT];
+            return reopened;
+        }
+
+        /**
+         * 读取槽位的序列化结果，空槽位返回 null；长度越界或校验和不符时抛出 IOException
+         */
+        byte[] readSlot(int slot) throws IOException {
+            int offset = slotOffset(slot);
+            int length = buffer.getInt(offset);
+            if (length == 0) return null;
+            if (length < 0 || length > slotCapacity - SLOT_HEADER) {
+                throw new IOException("Invalid slot length " + length);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(offset + SLOT_HEADER, bytes);
+            if (checksum(bytes) != buffer.getInt(offset + Integer.BYTES)) {
+                throw new IOException("Slot checksum mismatch");
+            }
+            return bytes;
+        }
+
+        /**
+         * 磁盘上的槽位是否已是 bytes，损坏的槽位视为不同
+         */
+        boolean holds(int slot, byte[] bytes) {
+            try {
+                return Arrays.equals(readSlot(slot), bytes);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * 先写内容和校验和，最后写长度；中途中断时长度与内容不符，读取时校验失败
+         */
+        void writeSlot(int slot, byte[] bytes) {
+            int offset = slotOffset(slot);
+            if (bytes == null) {
+                buffer.putInt(offset, 0);
+            } else {
+                buffer.put(offset + SLOT_HEADER, bytes);
+                buffer.putInt(offset + Integer.BYTES, checksum(bytes));
+                buffer.putInt(offset, bytes.length);
+            }
+        }
+
+        private static int checksum(byte[] bytes) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return (int) crc.getValue();
+        }
+
+        /**
+         * 各槽位记录的总长度
+         */
+        long contentBytes() {
+            long total = 0L;
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                total += Math.max(0, buffer.getInt(slotOffset(slot)));
+            }
+            return total;
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+
+        private int slotOffset(int slot) {
+            return HEADER_SIZE + slot * slotCapacity;
+        }
+
+        private static long fileSize(int slotCapacity) {
+            return HEADER_SIZE + (long) SLOT_COUNT * slotCapacity;
+        }
+    }
+
+    /**
+     * 组文件头，用位置读取而不建立映射，启动扫描时不会占用映射
+     */
+    private static final class Header {
+        final String name;
+        final int slotCapacity;
+        final long version;
+        final long contentBytes;
+
+        private Header(String name, int slotCapacity, long version, long contentBytes) {
+            this.name = name;
+            this.slotCapacity = slotCapacity;
+            this.version = version;
+            this.contentBytes = contentBytes;
+        }
+
+        static Header read(FileChannel channel) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0L);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Invalid group file");
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported group file version " + header.getInt(4));
+            }
+            int slotCapacity = header.getInt(8);
+            byte[] name = new byte[header.get(12) & 0xFF];
+            header.get(NAME_OFFSET, name);
+            if (channel.size() < GroupFile.fileSize(slotCapacity)) {
+                throw new IOException("Truncated group file");
+            }
+
+            long contentBytes = 0L;
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                length.clear();
+                readFully(channel, length, HEADER_SIZE + (long) slot * slotCapacity);
+                contentBytes += Math.max(0, length.getInt(0));
+            }
+            return new Header(new String(name, StandardCharsets.UTF_8), slotCapacity,
+                    header.getLong(VERSION_OFFSET), contentBytes);
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Truncated group file");
+                }
+            }
+        }
+    }
+}
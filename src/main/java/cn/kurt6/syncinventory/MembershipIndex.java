@@ -0,0 +1,196 @@
+package cn.kurt6.syncinventory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * 内存映射的玩家所属组索引
+ * 每个玩家占一条定长记录（UUID + 组名），变化时只覆盖对应记录；
+ * 文件头同时记录已落盘数据覆盖到的日志序号。
+ * 只在IO线程上访问，加载阶段除外
+ */
+public class MembershipIndex implements Closeable {
+
+    private static final int MAGIC = 0x53494D42; // "SIMB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 128;
+    private static final int NAME_OFFSET = 24;
+
+    private final Path path;
+    private final Logger logger;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int recordCount;
+    private long journalSeq;
+
+    // 玩家 -> 记录序号
+    private final Map<UUID, Integer> records = new HashMap<>();
+    private final Deque<Integer> freeRecords = new ArrayDeque<>();
+
+    private MembershipIndex(Path path, Logger logger) {
+        this.path = path;
+        this.logger = logger;
+    }
+
+    public static MembershipIndex open(Path path, Logger logger) throws IOException {
+        MembershipIndex index = new MembershipIndex(path, logger);
+        index.openFile();
+        return index;
+    }
+
+    private void openFile() throws IOException {
+        boolean exists = Files.exists(path) && Files.size(path) >= HEADER_SIZE;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (!exists) {
+            recordCount = 0;
+            map(HEADER_SIZE);
+            writeHeader();
+            return;
+        }
+
+        map(channel.size());
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Invalid membership index file: " + path);
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported membership index version " + version + ": " + path);
+        }
+        recordCount = buffer.getInt(8);
+        journalSeq = buffer.getLong(16);
+
+        for (int record = 0; record < recordCount; record++) {
+            int offset = recordOffset(record);
+            if (buffer.get(offset) == 0) {
+                freeRecords.add(record);
+                continue;
+            }
+            records.put(new UUID(buffer.getLong(offset + 8), buffer.getLong(offset + 16)), record);
+        }
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    /**
+     * 最近一次落盘时数据已覆盖到的日志序号
+     */
+    public long getJournalSeq() {
+        return journalSeq;
+    }
+
+    public Map<UUID, String> readAll() {
+        Map<UUID, String> result = new HashMap<>(records.size());
+        for (Map.Entry<UUID, Integer> entry : records.entrySet()) {
+            int offset = recordOffset(entry.getValue());
+            byte[] name = new byte[buffer.get(offset + 1) & 0xFF];
+            buffer.get(offset + NAME_OFFSET, name);
+            result.put(entry.getKey(), new String(name, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /**
+     * 写入发生变化的玩家记录，值为 null 表示玩家已离开组，最后更新日志序号并落盘
+     */
+    public void write(Map<UUID, String> changes, long journalSeq) throws IOException {
+        for (Map.Entry<UUID, String> entry : changes.entrySet()) {
+            UUID playerId = entry.getKey();
+            String groupName = entry.getValue();
+            Integer record = records.get(playerId);
+
+            if (groupName == null) {
+                if (record != null) {
+                    buffer.put(recordOffset(record), (byte) 0);
+                    freeRecords.add(record);
+                    records.remove(playerId);
+                }
+                continue;
+            }
+
+            byte[] name = groupName.getBytes(StandardCharsets.UTF_8);
+            if (name.length > MappedGroupStore.MAX_NAME_BYTES) {
+                logger.warning("Group name too long for membership index: " + groupName);
+                continue;
+            }
+
+            if (record == null) {
+                record = allocate();
+                records.put(playerId, record);
+            }
+
+            int offset = recordOffset(record);
+            buffer.putLong(offset + 8, playerId.getMostSignificantBits());
+            buffer.putLong(offset + 16, playerId.getLeastSignificantBits());
+            buffer.put(offset + 1, (byte) name.length);
+            buffer.put(offset + NAME_OFFSET, name);
+            buffer.put(offset, (byte) 1);
+        }
+
+        this.journalSeq = journalSeq;
+        buffer.putLong(16, journalSeq);
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    private int allocate() throws IOException {
+        Integer record = freeRecords.poll();
+        if (record != null) {
+            return record;
+        }
+
+        // 按几何级数扩容，新记录全部标记为空闲
+        int first = recordCount;
+        int newCount = recordCount + Math.max(32, recordCount / 2);
+        map((long) HEADER_SIZE + (long) newCount * RECORD_SIZE);
+        for (int i = first; i < newCount; i++) {
+            buffer.put(recordOffset(i), (byte) 0);
+            if (i != first) {
+                freeRecords.add(i);
+            }
+        }
+        recordCount = newCount;
+        writeHeader();
+        return first;
+    }
+
+    private void map(long size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, recordCount);
+        buffer.putLong(16, journalSeq);
+    }
+
+    private int recordOffset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+}
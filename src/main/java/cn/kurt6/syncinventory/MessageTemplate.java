@@ -0,0 +1,89 @@
+package cn.kurt6.syncinventory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预先解析的消息模板
+ * 语言文件加载时把每条消息拆分为文本片段和占位符(%name%)，消息文本原样保留；
+ * 渲染时按顺序一次拼接，不再对整条消息逐个占位符 replace
+ */
+public final class MessageTemplate {
+
+    private final String text;
+    // 占位符前后的文本片段，比占位符多一个
+    private final String[] literals;
+    private final String[] placeholders;
+    private final int literalLength;
+
+    private MessageTemplate(String text, String[] literals, String[] placeholders) {
+        this.text = text;
+        this.literals = literals;
+        this.placeholders = placeholders;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    public static MessageTemplate compile(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int start = 0;
+        int from = 0;
+        while (true) {
+            int open = text.indexOf('%', from);
+            if (open < 0) break;
+            int close = text.indexOf('%', open + 1);
+            if (close < 0) break;
+            // 两个 % 之间不是占位符名时（如 "50% ... %"），后一个 % 仍可能开始一个占位符
+            if (!isName(text, open + 1, close)) {
+                from = close;
+                continue;
+            }
+            literals.add(text.substring(start, open));
+            placeholders.add(text.substring(open + 1, close));
+            start = close + 1;
+            from = start;
+        }
+        literals.add(text.substring(start));
+        return new MessageTemplate(text, literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    private static boolean isName(String text, int begin, int end) {
+        if (begin == end) return false;
+        for (int i = begin; i < end; i++) {
+            char c = text.charAt(i);
+            if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '_') return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param values 占位符名与值交替排列，如 "group", groupName；没有给出值的占位符原样保留
+     */
+    public String render(String... values) {
+        if (placeholders.length == 0) return text;
+
+        StringBuilder builder = new StringBuilder(literalLength + 16 * placeholders.length);
+        for (int i = 0; i < placeholders.length; i++) {
+            builder.append(literals[i]);
+            int index = indexOf(placeholders[i], values);
+            if (index < 0) {
+                builder.append('%').append(placeholders[i]).append('%');
+            } else {
+                builder.append(values[index + 1]);
+            }
+        }
+        builder.append(literals[placeholders.length]);
+        return builder.toString();
+    }
+
+    private static int indexOf(String name, String[] values) {
+        for (int i = 0; i + 1 < values.length; i += 2) {
+            if (name.equals(values[i])) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,62 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 屏蔽 Folia 与 Bukkit 调度差异的统一调度层，在 onEnable 中检测一次平台后固定使用
+ */
+public interface PlatformScheduler {
+
+    /**
+     * 可取消的定时任务
+     */
+    interface Task {
+        void cancel();
+    }
+
+    /**
+     * 检测当前平台并创建对应的调度器，只应在启用插件时调用一次
+     */
+    static PlatformScheduler create(Plugin plugin) {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return new FoliaPlatformScheduler(plugin);
+        } catch (ClassNotFoundException e) {
+            return new BukkitPlatformScheduler(plugin);
+        }
+    }
+
+    boolean isFolia();
+
+    /**
+     * 在实体所在线程上执行，已在该线程时直接执行
+     */
+    void execute(Entity entity, Runnable task);
+
+    /**
+     * 延迟指定tick后在实体所在线程上执行，0 表示下一tick
+     */
+    void runLater(Entity entity, Runnable task, long delay);
+
+    /**
+     * 批量提交：对每个目标在其对应实体所在线程上执行同一操作，
+     * Bukkit 下整批在一个任务内完成，Folia 下按实体分别投递到各自区域
+     */
+    <T> void executeAll(Iterable<T> targets, Function<? super T, ? extends Entity> entityOf, Consumer<? super T> action);
+
+    /**
+     * 在全局线程上执行，延迟 0 表示下一tick
+     */
+    void runGlobalLater(Runnable task, long delay);
+
+    Task runGlobalTimer(Runnable task, long delay, long period);
+
+    /**
+     * 在异步线程上执行
+     */
+    void runAsync(Runnable task);
+}
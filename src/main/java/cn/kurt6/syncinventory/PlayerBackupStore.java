@@ -0,0 +1,249 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * 玩家加入组之前的背包备份
+ * 每个玩家一个二进制文件，写入、删除和缓存未命中时的读取都在IO线程上异步完成；内存中只保留最近使用的备份，
+ * 数量超过上限时按最近最少使用淘汰，之后的读取直接从文件读回
+ */
+public class PlayerBackupStore {
+
+    private static final int MAGIC = 0x5349424B; // "SIBK"
+    private static final int VERSION = 1;
+    private static final int SLOT_COUNT = GroupState.SLOT_COUNT;
+    private static final String EXTENSION = ".bak";
+
+    // 尚未落盘的删除
+    private static final ItemStack[] REMOVED = new ItemStack[0];
+
+    private final Path directory;
+    private final Executor ioExecutor;
+    private final Logger logger;
+    private final int cacheSize;
+
+    // 最近使用的备份，按访问顺序排列；以下两个表都只在持有 this 时访问
+    private final LinkedHashMap<UUID, ItemStack[]> cache;
+    // 已提交但尚未落盘的写入和删除，读取时优先于文件
+    private final Map<UUID, ItemStack[]> pending = new HashMap<>();
+
+    // 磁盘上的备份数，只在IO线程上修改
+    private final AtomicInteger persistedCount = new AtomicInteger();
+
+    private PlayerBackupStore(Path directory, Executor ioExecutor, Logger logger, int cacheSize) {
+        this.directory = directory;
+        this.ioExecutor = ioExecutor;
+        this.logger = logger;
+        this.cacheSize = Math.max(0, cacheSize);
+        this.cache = new LinkedHashMap<>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, ItemStack[]> eldest) {
+                return size() > PlayerBackupStore.this.cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param cacheSize 内存中最多保留的备份数
+     */
+    public static PlayerBackupStore open(Path directory, Executor ioExecutor, Logger logger, int cacheSize) throws IOException {
+        Files.createDirectories(directory);
+        PlayerBackupStore store = new PlayerBackupStore(directory, ioExecutor, logger, cacheSize);
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path ignored : stream) {
+                count++;
+            }
+        }
+        store.persistedCount.set(count);
+        return store;
+    }
+
+    /**
+     * 保存备份，物品之后不得再被修改
+     */
+    public synchronized void put(UUID playerId, ItemStack[] items) {
+        ItemStack[] backup = new ItemStack[SLOT_COUNT];
+        System.arraycopy(items, 0, backup, 0, Math.min(items.length, SLOT_COUNT));
+        cache.put(playerId, backup);
+        pending.put(playerId, backup);
+        ioExecutor.execute(() -> flush(playerId, backup));
+    }
+
+    /**
+     * 读取备份交给 callback，不存在时为 null
+     * 内存中有时在调用线程上立即回调，否则在IO线程上从文件读回后回调，调用方需要自己回到玩家所在线程
+     */
+    public void load(UUID playerId, Consumer<ItemStack[]> callback) {
+        ItemStack[] known = lookup(playerId);
+        if (known != null) {
+            callback.accept(known == REMOVED ? null : known);
+            return;
+        }
+        ioExecutor.execute(() -> callback.accept(readThrough(playerId)));
+    }
+
+    /**
+     * 内存中的备份或尚未落盘的变化，都没有时返回 null
+     */
+    private synchronized ItemStack[] lookup(UUID playerId) {
+        ItemStack[] cached = cache.get(playerId);
+        return cached != null ? cached : pending.get(playerId);
+    }
+
+    private ItemStack[] readThrough(UUID playerId) {
+        ItemStack[] loaded;
+        try {
+            loaded = read(path(playerId));
+        } catch (IOException e) {
+            logger.warning("Failed to read backup of " + playerId + ": " + e.getMessage());
+            return null;
+        }
+
+        synchronized (this) {
+            // 读取期间有新的写入或删除时以其为准
+            ItemStack[] queued = pending.get(playerId);
+            if (queued != null) return queued == REMOVED ? null : queued;
+            if (loaded == null) return null;
+            ItemStack[] cached = cache.putIfAbsent(playerId, loaded);
+            return cached != null ? cached : loaded;
+        }
+    }
+
+    /**
+     * 删除备份
+     */
+    public synchronized void remove(UUID playerId) {
+        cache.remove(playerId);
+        pending.put(playerId, REMOVED);
+        ioExecutor.execute(() -> flush(playerId, REMOVED));
+    }
+
+    /**
+     * 磁盘上的备份数，不含尚未落盘的变化
+     */
+    public int size() {
+        return persistedCount.get();
+    }
+
+    /**
+     * 内存中缓存的备份数
+     */
+    public synchronized int cachedSize() {
+        return cache.size();
+    }
+
+    private void flush(UUID playerId, ItemStack[] backup) {
+        Path path = path(playerId);
+        try {
+            if (backup == REMOVED) {
+                if (Files.deleteIfExists(path)) {
+                    persistedCount.decrementAndGet();
+                }
+            } else {
+                boolean existed = Files.exists(path);
+                write(path, backup);
+                if (!existed) {
+                    persistedCount.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to save backup of " + playerId + ": " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                // 之后又有新的变化排队时保留其记录
+                pending.remove(playerId, backup);
+            }
+        }
+    }
+
+    private Path path(UUID playerId) {
+        return directory.resolve(playerId + EXTENSION);
+    }
+
+    /**
+     * 文件格式：魔数、版本，之后是36个长度前缀的 ItemStack#serializeAsBytes 结果，长度为0表示空槽位
+     */
+    private static void write(Path path, ItemStack[] backup) throws IOException {
+        byte[][] slots = new byte[SLOT_COUNT][];
+        int size = 2 * Integer.BYTES + SLOT_COUNT * Integer.BYTES;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            ItemStack item = backup[slot];
+            if (item == null || item.getType().isAir() || item.getAmount() <= 0) continue;
+            slots[slot] = item.serializeAsBytes();
+            size += slots[slot].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        for (byte[] bytes : slots) {
+            if (bytes == null) {
+                buffer.putInt(0);
+            } else {
+                buffer.putInt(bytes.length);
+                buffer.put(bytes);
+            }
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, buffer.array());
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private ItemStack[] read(Path path) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != MAGIC) {
+            throw new IOException("Invalid backup file");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported backup file version " + version);
+        }
+
+        ItemStack[] items = new ItemStack[SLOT_COUNT];
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int length = buffer.getInt();
+            if (length <= 0) continue;
+            if (length > buffer.remaining()) {
+                throw new IOException("Truncated backup file");
+            }
+            byte[] item = new byte[length];
+            buffer.get(item);
+            try {
+                items[slot] = ItemStack.deserializeBytes(item);
+            } catch (Exception e) {
+                logger.warning("Failed to read slot " + slot + " of backup " + path.getFileName() + ": " + e.getMessage());
+            }
+        }
+        return items;
+    }
+}
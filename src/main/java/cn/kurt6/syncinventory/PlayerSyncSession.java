@@ -0,0 +1,228 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * 在线玩家的同步会话，玩家加入时创建、退出时丢弃
+ * 直接持有所在组的引用，事件处理只需读取一个字段，不再多次查表
+ */
+public final class PlayerSyncSession {
+
+    private static final int NOT_PENDING = -1;
+
+    private final Player player;
+    private final SyncMetrics metrics;
+    private volatile GroupState group;
+
+    // 已排队但尚未刷新的推送的最高优先级，没有排队时为 NOT_PENDING
+    private final AtomicInteger pendingPriority = new AtomicInteger(NOT_PENDING);
+
+    // 玩家背包最近一次与组背包一致时的组版本
+    private volatile long lastAppliedVersion = -1L;
+
+    // 捕获时复用的缓冲区，只在玩家所在线程上使用
+    private final ItemStack[] observedItems = new ItemStack[GroupState.SLOT_COUNT];
+    private final long[] observedFingerprints = new long[GroupState.SLOT_COUNT];
+
+    // 插件认为玩家背包当前持有的内容指纹：最近一次拉取、收到分发或自己提交之后的状态。
+    // 捕获时只把与它不同的槽位当作玩家自己的改动，与插件写入一致的状态不会被回推
+    private final long[] baselineFingerprints = new long[GroupState.SLOT_COUNT];
+    // 同一状态下各槽位的组版本和物品数量，捕获时据此识别并合并其他成员对同一槽位的并发改动
+    private final long[] baselineSlotVersions = new long[GroupState.SLOT_COUNT];
+    private final int[] baselineAmounts = new int[GroupState.SLOT_COUNT];
+    private volatile boolean baselineKnown;
+    // 上一次捕获时没有合并的槽位，玩家背包中仍是其自己的物品，分发不覆盖这些槽位
+    private long deferredSlots;
+
+    PlayerSyncSession(Player player, GroupState group, SyncMetrics metrics) {
+        this.player = player;
+        this.metrics = metrics;
+        this.group = group;
+        join(group);
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * 所在组，不在组中时为 null
+     */
+    public GroupState getGroup() {
+        return group;
+    }
+
+    /**
+     * 加入、退出或组被删除时更新所在组，同时作废之前的版本记录
+     */
+    void bind(GroupState group) {
+        leave(this.group);
+        join(group);
+        this.group = group;
+        this.lastAppliedVersion = -1L;
+        this.pendingPriority.set(NOT_PENDING);
+        this.baselineKnown = false;
+        this.deferredSlots = 0L;
+    }
+
+    /**
+     * 玩家退出服务器，从所在组的在线成员中移除
+     */
+    void close() {
+        leave(group);
+    }
+
+    // 在线成员计数只随组的在线集合实际发生的变化增减
+    private void join(GroupState group) {
+        if (group != null && group.addOnline(this)) {
+            metrics.onlineChanged(1);
+        }
+    }
+
+    private void leave(GroupState group) {
+        if (group != null && group.removeOnline(this)) {
+            metrics.onlineChanged(-1);
+        }
+    }
+
+    /**
+     * 尝试登记一次推送，已有同等或更高优先级的推送在排队时返回 false
+     */
+    boolean markPending(SyncPolicy.Priority priority) {
+        int requested = priority.ordinal();
+        while (true) {
+            int current = pendingPriority.get();
+            if (current >= requested) {
+                return false;
+            }
+            if (pendingPriority.compareAndSet(current, requested)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 所在组已刷新，之后的事件重新登记
+     */
+    void clearPending() {
+        pendingPriority.set(NOT_PENDING);
+    }
+
+    public long getLastAppliedVersion() {
+        return lastAppliedVersion;
+    }
+
+    /**
+     * 记录玩家背包已与组背包的该版本一致，只会前进
+     */
+    void applied(long version) {
+        if (version > lastAppliedVersion) {
+            lastAppliedVersion = version;
+        }
+    }
+
+    /**
+     * 把玩家背包的存储槽位读入捕获缓冲区，之后由 GroupState#capture 比较；只在玩家所在线程调用
+     */
+    void observe(IntFunction<ItemStack> slots) {
+        for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+            ItemStack item = slots.apply(slot);
+            if (item != null && (item.getType().isAir() || item.getAmount() <= 0)) {
+                item = null;
+            }
+            observedItems[slot] = item;
+            observedFingerprints[slot] = GroupSnapshot.fingerprint(item);
+        }
+    }
+
+    ItemStack[] observedItems() {
+        return observedItems;
+    }
+
+    long[] observedFingerprints() {
+        return observedFingerprints;
+    }
+
+    /**
+     * 尚未拉取过组背包时为 false，此时捕获退回到与组背包当前版本比较
+     */
+    boolean hasBaseline() {
+        return baselineKnown;
+    }
+
+    long[] baselineFingerprints() {
+        return baselineFingerprints;
+    }
+
+    long[] baselineSlotVersions() {
+        return baselineSlotVersions;
+    }
+
+    int[] baselineAmounts() {
+        return baselineAmounts;
+    }
+
+    /**
+     * 整个背包被插件写入为该版本的内容后记录其状态，只在玩家所在线程调用
+     */
+    void resetBaseline(GroupSnapshot snapshot) {
+        for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+            copySlot(snapshot, slot);
+        }
+        baselineKnown = true;
+        deferredSlots = 0L;
+    }
+
+    /**
+     * 玩家提交后记录其改动的槽位在 committed 中的状态，其余槽位与玩家背包一致；
+     * 之前没有记录时其余槽位取自捕获时比较的版本 reference。deferred 为本次没有合并的槽位。只在玩家所在线程调用
+     */
+    void commitBaseline(GroupSnapshot committed, long edited, long deferred, GroupSnapshot reference) {
+        for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+            if ((edited & (1L << slot)) != 0L) {
+                copySlot(committed, slot);
+            } else if (!baselineKnown) {
+                copySlot(reference, slot);
+            }
+        }
+        baselineKnown = true;
+        deferredSlots = deferred;
+    }
+
+    private void copySlot(GroupSnapshot snapshot, int slot) {
+        ItemStack item = snapshot.getItem(slot);
+        baselineFingerprints[slot] = snapshot.getFingerprint(slot);
+        baselineSlotVersions[slot] = snapshot.getSlotVersion(slot);
+        baselineAmounts[slot] = item == null ? 0 : item.getAmount();
+    }
+
+    /**
+     * 把其他成员提交的增量写入玩家背包并记录写入的内容，之后的事件看到的仍是这些物品时不会回推。
+     * setItem 会复制物品，多个成员可共用同一份增量；
+     * 分发可能晚于更新的版本送达，玩家已持有更新版本的槽位保持不变；尚未合并的槽位也不覆盖。
+     * 返回写入的槽位数，只在玩家所在线程调用
+     */
+    int receive(SlotDelta delta) {
+        Inventory inventory = player.getInventory();
+        int written = 0;
+        for (int i = 0; i < delta.size(); i++) {
+            int slot = delta.slotAt(i);
+            if (baselineKnown && baselineSlotVersions[slot] >= delta.getVersion()) continue;
+            if ((deferredSlots & (1L << slot)) != 0L) continue;
+            ItemStack item = delta.itemAt(i);
+            inventory.setItem(slot, item);
+            written++;
+            if (baselineKnown) {
+                baselineFingerprints[slot] = delta.fingerprintAt(i);
+                baselineSlotVersions[slot] = delta.getVersion();
+                baselineAmounts[slot] = item == null ? 0 : item.getAmount();
+            }
+        }
+        return written;
+    }
+}
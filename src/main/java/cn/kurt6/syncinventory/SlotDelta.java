@@ -0,0 +1,166 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.inventory.ItemStack;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * 一次同步中发生变化的槽位及其新物品，创建后不再修改，可安全交给其他线程应用
+ */
+public final class SlotDelta {
+
+    static final SlotDelta EMPTY = new SlotDelta(new int[0], new ItemStack[0], 0, 0L);
+
+    private final int[] slots;
+    private final ItemStack[] items;
+    private final int size;
+    private final long version;
+
+    // 与 items 对应的内容指纹，从日志解码的增量没有，按需计算
+    private final long[] fingerprints;
+    // 与 items 对应的变化前物品，跨服合并时用来判断本服是否也改过该槽位；从日志解码的增量没有
+    private final ItemStack[] previous;
+    // 应用该增量后的组背包，组历史用它写出与增量同一版本的关键帧；从日志或跨服传输解码的增量没有
+    private final GroupSnapshot committed;
+
+    /**
+     * @param version 应用该增量后组背包的版本号
+     */
+    SlotDelta(int[] slots, ItemStack[] items, int size, long version) {
+        this(slots, items, null, null, size, version);
+    }
+
+    SlotDelta(int[] slots, ItemStack[] items, long[] fingerprints, ItemStack[] previous, int size, long version) {
+        this(slots, items, fingerprints, previous, size, version, null);
+    }
+
+    /**
+     * 本服提交的增量，版本号取自提交后的组背包
+     */
+    SlotDelta(int[] slots, ItemStack[] items, long[] fingerprints, ItemStack[] previous, int size, GroupSnapshot committed) {
+        this(slots, items, fingerprints, previous, size, committed.getVersion(), committed);
+    }
+
+    private SlotDelta(int[] slots, ItemStack[] items, long[] fingerprints, ItemStack[] previous, int size,
+                      long version, GroupSnapshot committed) {
+        this.slots = slots;
+        this.items = items;
+        this.fingerprints = fingerprints;
+        this.previous = previous;
+        this.size = size;
+        this.version = version;
+        this.committed = committed;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int slotAt(int index) {
+        return slots[index];
+    }
+
+    /**
+     * 变化后的物品，空槽位为 null
+     */
+    public ItemStack itemAt(int index) {
+        return items[index];
+    }
+
+    /**
+     * 变化后物品的指纹
+     */
+    public long fingerprintAt(int index) {
+        return fingerprints != null ? fingerprints[index] : GroupSnapshot.fingerprint(items[index]);
+    }
+
+    /**
+     * 是否带有变化前的物品，本服提交的增量都有
+     */
+    boolean hasPrevious() {
+        return previous != null;
+    }
+
+    /**
+     * 变化前的物品，空槽位为 null
+     */
+    ItemStack previousAt(int index) {
+        return previous[index];
+    }
+
+    /**
+     * 应用该增量后的组背包，只有本服提交的增量才有，否则为 null
+     */
+    GroupSnapshot getCommitted() {
+        return committed;
+    }
+
+    /**
+     * 写出槽位数以及各槽位的槽位号和 ItemStack#serializeAsBytes 的结果，空槽位长度记为 -1；
+     * 预写日志、组历史和跨服传输共用这一格式
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        writeTo(out, false);
+    }
+
+    /**
+     * withPrevious 为 true 时每个槽位在新物品之后再写出变化前的物品，供跨服传输使用
+     */
+    void writeTo(DataOutputStream out, boolean withPrevious) throws IOException {
+        out.writeShort(size);
+        for (int i = 0; i < size; i++) {
+            out.writeByte(slots[i]);
+            writeItem(out, items[i]);
+            if (withPrevious) {
+                writeItem(out, previous[i]);
+            }
+        }
+    }
+
+    static SlotDelta readFrom(DataInputStream in, long version) throws IOException {
+        return readFrom(in, version, false);
+    }
+
+    static SlotDelta readFrom(DataInputStream in, long version, boolean withPrevious) throws IOException {
+        int count = in.readShort();
+        int[] slots = new int[count];
+        ItemStack[] items = new ItemStack[count];
+        ItemStack[] previous = withPrevious ? new ItemStack[count] : null;
+        for (int i = 0; i < count; i++) {
+            slots[i] = in.readByte();
+            items[i] = readItem(in);
+            if (withPrevious) {
+                previous[i] = readItem(in);
+            }
+        }
+        return new SlotDelta(slots, items, null, previous, count, version);
+    }
+
+    private static void writeItem(DataOutputStream out, ItemStack item) throws IOException {
+        if (item == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] data = item.serializeAsBytes();
+            out.writeInt(data.length);
+            out.write(data);
+        }
+    }
+
+    private static ItemStack readItem(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return ItemStack.deserializeBytes(data);
+    }
+}
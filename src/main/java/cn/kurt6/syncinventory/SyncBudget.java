@@ -0,0 +1,101 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Bukkit;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 每tick同步工作的时间预算
+ * 捕获、拉取和分发各自记录耗时，当前tick累计超过预算后，剩余的脏组和成员分发顺延到之后的tick。
+ * 同时跟踪服务器的 MSPT，超过 50ms 时按比例放宽各事件的合并延迟，
+ * 服务器卡顿时同步变为最终一致，而不是继续加重卡顿。
+ * MSPT 取自 Paper 统计的最近 100 个tick的平均耗时；服务端不提供时退回到相邻两次tick的间隔，
+ * 间隔包含tick之间的等待，不会低于 50ms，只能反映卡顿而不能反映空闲的余量
+ */
+public class SyncBudget {
+
+    private static final long TICK_NANOS = 50_000_000L;
+
+    // 平均tick间隔的平滑系数
+    private static final double SMOOTHING = 0.1D;
+
+    // 0 表示不限制
+    private volatile long budgetNanos;
+    private volatile int maxDebounceFactor = 1;
+
+    // 累计已用的时间，只增不减，Folia 上由各区域线程与全局线程并发累加；
+    // 新tick开始时记下当时的累计值，不清零计数器，清零会丢掉与之并发的累加
+    private final LongAdder spent = new LongAdder();
+    private volatile long spentAtTickStart;
+
+    private volatile double averageTickNanos = TICK_NANOS;
+    // 以下只在全局线程访问
+    private long lastTickStart;
+    // 服务端是否提供平均tick耗时，第一次调用失败后不再尝试
+    private boolean serverTickTime = true;
+
+    /**
+     * @param budgetMillis      每tick同步工作的时间上限(毫秒)，0 为不限制
+     * @param maxDebounceFactor 合并延迟最多放宽到原来的倍数，1 为不放宽
+     */
+    void configure(double budgetMillis, int maxDebounceFactor) {
+        this.budgetNanos = Math.max(0L, (long) (budgetMillis * 1_000_000D));
+        this.maxDebounceFactor = Math.max(1, maxDebounceFactor);
+    }
+
+    /**
+     * 新的tick开始，由全局任务每tick调用一次
+     */
+    void startTick() {
+        long now = System.nanoTime();
+        if (lastTickStart != 0L) {
+            averageTickNanos = sampleTickNanos(now - lastTickStart);
+        }
+        lastTickStart = now;
+        spentAtTickStart = spent.sum();
+    }
+
+    private double sampleTickNanos(long interval) {
+        if (serverTickTime) {
+            try {
+                return Bukkit.getAverageTickTime() * 1_000_000D;
+            } catch (UnsupportedOperationException | NoSuchMethodError e) {
+                // 非 Paper 服务端，或 Folia 上没有全服的tick统计
+                serverTickTime = false;
+            }
+        }
+        return averageTickNanos + (interval - averageTickNanos) * SMOOTHING;
+    }
+
+    public void record(long nanos) {
+        spent.add(nanos);
+    }
+
+    /**
+     * 当前tick的预算已经用完
+     */
+    public boolean isExhausted() {
+        long budget = budgetNanos;
+        return budget > 0L && spent.sum() - spentAtTickStart >= budget;
+    }
+
+    /**
+     * 按当前 MSPT 放宽后的延迟(tick)：MSPT 为 50ms 的 f 倍时，延迟按比例放宽到 f 倍，
+     * 并多合并 f - 1 个tick，向上取整；MSPT 刚超过 50ms 就开始放宽
+     */
+    public long widen(long delay) {
+        double factor = debounceFactor();
+        return factor <= 1D ? delay : (long) Math.ceil(delay * factor + (factor - 1D));
+    }
+
+    double debounceFactor() {
+        return Math.max(1D, Math.min(maxDebounceFactor, averageTickNanos / TICK_NANOS));
+    }
+
+    /**
+     * 估计的平均tick耗时(毫秒)
+     */
+    public double getAverageTickMillis() {
+        return averageTickNanos / 1_000_000D;
+    }
+}
@@ -10,45 +10,84 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
-import org.bukkit.scheduler.BukkitTask;
-
-import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class SyncInventory extends JavaPlugin {
 
-    final Map<String, Inventory> groupInventories = new ConcurrentHashMap<>();
+    // 回溯时长的一段，如 10m
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d{1,9})([smhd])");
+
+    // 组名 -> 组状态，背包内容以不可变版本无锁替换
+    final Map<String, GroupState> groups = new ConcurrentHashMap<>();
     private final Map<UUID, String> playerGroups = new ConcurrentHashMap<>();
-    final Map<String, Set<UUID>> groupMembers = new ConcurrentHashMap<>();
-    private final Map<UUID, ItemStack[]> playerBackups = new ConcurrentHashMap<>();
-    final Set<String> deathMarkers = ConcurrentHashMap.newKeySet();
+
+    // 在线玩家的同步会话
+    private final Map<UUID, PlayerSyncSession> sessions = new ConcurrentHashMap<>();
+    // 加入组之前的背包备份，落盘保存，内存中只缓存最近使用的
+    private PlayerBackupStore playerBackups;
 
     // 待确认加入的玩家映射
     private final Map<UUID, String> pendingJoins = new ConcurrentHashMap<>();
 
+    // 各事件类型的同步策略
+    private final SyncPolicyRegistry syncPolicies = new SyncPolicyRegistry();
+
+    // 按组合并的同步调度器
+    private final GroupSyncScheduler syncScheduler = new GroupSyncScheduler(this);
+
+
     private File dataFile;
+    private MappedGroupStore groupStore;
+    private MembershipIndex membershipIndex;
+    private DataPersistence persistence;
+    private ChangeJournal journal;
+    private GroupHistory history;
+    // 未启用跨服同步时为 null
+    private CrossServerSync crossServer;
     private FileConfiguration dataConfig;
     private FileConfiguration langConfig;
+    // 语言文件解析后的消息模板，加载或切换语言时整体替换
+    private volatile Map<String, MessageTemplate> messages = Collections.emptyMap();
     private String currentLanguage;
-    private Object scheduledTask;
+    private PlatformScheduler.Task scheduledTask;
+    private PlatformScheduler.Task journalTask;
+    private PlatformScheduler.Task metricsTask;
+    private PlatformScheduler.Task evictionTask;
+
+    // 启用时检测一次平台后固定的调度层
+    private PlatformScheduler platformScheduler;
+
+    // 自上次保存以来变化的组和玩家，保存时只写入这些
+    private final Set<String> dirtyGroups = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> dirtyPlayers = ConcurrentHashMap.newKeySet();
 
-    // 数据修改标志，避免频繁保存
-    private volatile boolean dataModified = false;
+    // 同步与持久化的运行统计
+    private final SyncMetrics metrics = new SyncMetrics();
+    // 最近一次回收检查时内容驻留内存的组数
+    private volatile int residentGroups;
 
-    // 同步锁，防止并发修改
-    final Object syncLock = new Object();
 
     @Override
     public void onEnable() {
+        platformScheduler = PlatformScheduler.create(this);
+
         // bStats
         int pluginId = 26859;
-        cn.kurt6.back.bStats.Metrics metrics = new cn.kurt6.back.bStats.Metrics(this, pluginId);
+        cn.kurt6.back.bStats.Metrics bStats = new cn.kurt6.back.bStats.Metrics(this, pluginId);
+        registerCharts(bStats);
 
         try {
             initializePlugin();
@@ -60,7 +99,7 @@ public class SyncInventory extends JavaPlugin {
             getServer().getPluginManager().disablePlugin(this);
         }
 
-        if (isFolia()) {
+        if (platformScheduler.isFolia()) {
             getLogger().info("Folia");
         }
     }
@@ -77,20 +116,36 @@ public class SyncInventory extends JavaPlugin {
         saveDefaultConfig();
         reloadConfig();
         currentLanguage = getConfig().getString("settings.language", "zh");
+        syncPolicies.load(getConfig().getConfigurationSection("sync-policies"), getLogger());
 
         // 加载语言文件
         loadLanguageFile();
 
-        // 初始化数据文件
-        setupDataFile();
+        // 启动阶段的读取和反序列化分散到所有核心上
+        ForkJoinPool loadPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            // 初始化数据文件
+            setupDataFile(loadPool);
 
-        // 加载数据
-        loadData();
+            // 加载数据
+            loadData(loadPool);
+        } finally {
+            loadPool.shutdown();
+        }
+
+        // 连接跨服同步
+        setupTransport();
+
+        // 为已在线的玩家（如重载插件时）建立会话
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            openSession(player);
+        }
 
         // 注册事件监听器
         getServer().getPluginManager().registerEvents(new InventoryListener(this), this);
 
-        // 启动自动保存任务
+        // 启动同步调度和自动保存任务
+        syncScheduler.start();
         startAutoSaveTask();
 
         // 初始化时清理所有待确认状态
@@ -103,34 +158,26 @@ public class SyncInventory extends JavaPlugin {
     private void startAutoSaveTask() {
         int interval = getConfig().getInt("settings.auto-save-interval", 5) * 60 * 20; // 转换为tick
 
-        if (isFolia()) {
-            scheduledTask = getServer().getGlobalRegionScheduler()
-                    .runAtFixedRate(this, task -> {
-                        if (dataModified) {
-                            getServer().getGlobalRegionScheduler().execute(this, this::saveData);
-                            dataModified = false;
-                        }
-                    }, interval, interval);
-        } else {
-            scheduledTask = new BukkitRunnable() {
-                @Override
-                public void run() {
-                    if (dataModified) {
-                        saveData();
-                        dataModified = false;
-                    }
-                }
-            }.runTaskTimer(this, interval, interval);
-        }
-    }
+        scheduledTask = platformScheduler.runGlobalTimer(() -> {
+            if (!dirtyGroups.isEmpty() || !dirtyPlayers.isEmpty()) {
+                saveData();
+            }
+        }, interval, interval);
 
-    boolean isFolia() {
-        try {
-            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
-            return true;
-        } catch (ClassNotFoundException e) {
-            return false;
-        }
+        // 预写日志每tick组提交一次，跨服同步同时发布本tick的变化并取回其他服务器的变化
+        journalTask = platformScheduler.runGlobalTimer(() -> {
+            journal.commit();
+            if (crossServer != null) {
+                crossServer.tick();
+            }
+        }, 1L, 1L);
+
+        // 统计每 5 秒归档一个区间
+        metricsTask = platformScheduler.runGlobalTimer(metrics::rotate,
+                SyncMetrics.INTERVAL_TICKS, SyncMetrics.INTERVAL_TICKS);
+
+        // 每分钟把空闲的组移出内存
+        evictionTask = platformScheduler.runGlobalTimer(this::evictIdleGroups, 1200L, 1200L);
     }
 
     @Override
@@ -138,19 +185,25 @@ public class SyncInventory extends JavaPlugin {
         // 取消定时任务
         if (scheduledTask != null) {
             try {
-                if (isFolia()) {
-                    ((ScheduledTask) scheduledTask).cancel();
-                } else {
-                    ((BukkitTask) scheduledTask).cancel();
-                }
+                scheduledTask.cancel();
+                journalTask.cancel();
+                metricsTask.cancel();
+                evictionTask.cancel();
             } catch (Exception e) {
                 getLogger().log(Level.WARNING, "Error cancelling scheduled task", e);
             }
         }
-        deathMarkers.clear();
+        syncScheduler.stop();
+        if (crossServer != null) {
+            crossServer.close();
+        }
 
-        // 强制保存数据
-        saveData();
+        // 强制保存数据并等待IO线程写完
+        if (persistence != null) {
+            journal.commit();
+            saveData();
+            persistence.shutdown();
+        }
         getLogger().info(getMessage("plugin-disabled"));
     }
 
@@ -161,6 +214,7 @@ public class SyncInventory extends JavaPlugin {
                 saveResource("lang_" + currentLanguage + ".yml", false);
             }
             langConfig = YamlConfiguration.loadConfiguration(langFile);
+            applyBundledDefaults("lang_" + currentLanguage + ".yml");
         } catch (Exception e) {
             getLogger().warning(getMessage("error-load-language-file"));
             currentLanguage = "zh";
@@ -169,96 +223,225 @@ public class SyncInventory extends JavaPlugin {
                 saveResource("lang_zh.yml", false);
             }
             langConfig = YamlConfiguration.loadConfiguration(langFile);
+            applyBundledDefaults("lang_zh.yml");
         }
+        compileMessages();
     }
 
-    public String getMessage(String key) {
-        if (langConfig == null) {
-            return "Missing message: " + key;
+    /**
+     * 把当前语言的全部消息（含内置默认值）解析为模板，之后取消息不再查询配置
+     */
+    private void compileMessages() {
+        Set<String> keys = new HashSet<>(langConfig.getKeys(true));
+        ConfigurationSection defaults = langConfig.getDefaults();
+        if (defaults != null) {
+            keys.addAll(defaults.getKeys(true));
+        }
+
+        Map<String, MessageTemplate> compiled = new HashMap<>(keys.size() * 2);
+        for (String key : keys) {
+            if (langConfig.isConfigurationSection(key)) continue;
+            String text = langConfig.getString(key);
+            if (text != null) {
+                compiled.put(key, MessageTemplate.compile(text));
+            }
         }
-        return langConfig.getString(key, "Missing message: " + key);
+        messages = compiled;
     }
 
-    private void setupDataFile() throws IOException {
+    /**
+     * 以插件内置的语言文件作为默认值，旧版本生成的语言文件缺少新增的消息时使用内置文本
+     */
+    private void applyBundledDefaults(String resource) {
+        InputStream stream = getResource(resource);
+        if (stream == null) return;
+        try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            langConfig.setDefaults(YamlConfiguration.loadConfiguration(reader));
+        } catch (IOException e) {
+            getLogger().warning(getMessage("error-load-language-file") + ": " + e.getMessage());
+        }
+    }
+
+    public String getMessage(String key) {
+        MessageTemplate template = messages.get(key);
+        return template == null ? "Missing message: " + key : template.render();
+    }
+
+    /**
+     * @param placeholders 占位符名(不含%)与值交替排列
+     */
+    public String getMessage(String key, String... placeholders) {
+        MessageTemplate template = messages.get(key);
+        return template == null ? "Missing message: " + key : template.render(placeholders);
+    }
+
+    private void setupDataFile(ForkJoinPool loadPool) throws IOException {
+        // data.yml 只在从旧版本迁移时读取
         dataFile = new File(getDataFolder(), "data.yml");
-        if (!dataFile.exists()) {
-            if (!dataFile.createNewFile()) {
-                throw new IOException("Cannot create data file");
+        dataConfig = YamlConfiguration.loadConfiguration(dataFile);
+        long scanStart = System.nanoTime();
+        groupStore = MappedGroupStore.open(new File(getDataFolder(), "groups").toPath(), getLogger(), loadPool);
+        getLogger().info(String.format(Locale.ROOT, "Scanned group store in %.1f ms", (System.nanoTime() - scanStart) / 1_000_000D));
+        membershipIndex = MembershipIndex.open(new File(getDataFolder(), "members.dat").toPath(), getLogger());
+        long journalThreshold = getConfig().getLong("settings.journal-compact-size", 1024L) * 1024L;
+        persistence = new DataPersistence(this, getDataFolder(), groupStore, membershipIndex, journalThreshold,
+                () -> platformScheduler.runGlobalLater(this::saveData, 0L),
+                getConfig().getInt("settings.backup-cache-size", 256),
+                getConfig().getInt("settings.history-keyframe-interval", 32),
+                getConfig().getLong("settings.history-retention-hours", 24L) * 3_600_000L);
+        journal = persistence.getJournal();
+        playerBackups = persistence.getBackupStore();
+        history = persistence.getHistory();
+    }
+
+    /**
+     * 按配置创建跨服同步的传输层，type 为 none 时不启用
+     */
+    private void setupTransport() {
+        ConfigurationSection section = getConfig().getConfigurationSection("transport");
+        String type = section == null ? "none" : section.getString("type", "none").toLowerCase(Locale.ROOT);
+        if (type.equals("none")) return;
+
+        String serverId = section.getString("server-id", "");
+        if (serverId.isEmpty()) {
+            serverId = String.valueOf(getServer().getPort());
+        }
+        SyncTransport transport;
+        try {
+            switch (type) {
+                case "loopback":
+                    transport = new LoopbackTransport(section.getString("channel", "default"));
+                    break;
+                case "directory":
+                    File directory = new File(getDataFolder(), section.getString("directory", "../SyncInventory-shared"));
+                    transport = DirectoryTransport.open(directory.toPath().normalize(), serverId,
+                            section.getLong("retention-seconds", 60L) * 1000L);
+                    break;
+                default:
+                    getLogger().warning("Unknown transport type: " + type);
+                    return;
             }
+        } catch (IOException e) {
+            getLogger().warning("Failed to open sync transport: " + e.getMessage());
+            return;
         }
-        dataConfig = YamlConfiguration.loadConfiguration(dataFile);
+        crossServer = new CrossServerSync(transport, serverId, getLogger(),
+                task -> platformScheduler.runGlobalLater(task, 0L), this::applyRemote);
+        getLogger().info("Cross-server sync enabled: " + type + " (" + serverId + ")");
     }
 
-    private void loadData() {
-        synchronized (syncLock) {
-            try {
-                // 清空现有数据
-                groupInventories.clear();
-                playerGroups.clear();
-                groupMembers.clear();
-
-                // 加载组数据
-                if (dataConfig.contains("groups")) {
-                    ConfigurationSection groupsSection = dataConfig.getConfigurationSection("groups");
-                    if (groupsSection != null) {
-                        for (String groupName : groupsSection.getKeys(false)) {
-                            loadGroupData(groupName, groupsSection);
-                        }
+    private void loadData(ForkJoinPool loadPool) {
+        long loadStart = System.nanoTime();
+        try {
+            // 清空现有数据，加载在监听器注册之前完成，不需要加锁
+            groups.clear();
+            playerGroups.clear();
+
+            // 加载组数据：每个组一个映射文件，启动时只登记组名，内容在首个成员上线时读取；
+            // 为空时从旧版 data.yml 迁移。各组先在局部表中建好，再一次性放入
+            boolean migrated = false;
+            Map<String, GroupState> loaded = new HashMap<>();
+            if (!groupStore.isEmpty()) {
+                for (String groupName : groupStore.groupNames()) {
+                    loaded.put(groupName, GroupState.unloaded(groupName));
+                }
+            } else if (dataConfig.contains("groups")) {
+                ConfigurationSection groupsSection = dataConfig.getConfigurationSection("groups");
+                if (groupsSection != null) {
+                    for (String groupName : groupsSection.getKeys(false)) {
+                        loadGroupData(loaded, groupName, 0L, readLegacyContents(groupName, groupsSection));
                     }
+                    migrated = !loaded.isEmpty();
                 }
+            }
+            groups.putAll(loaded);
+            long groupsLoaded = System.nanoTime();
 
-                // 加载玩家数据
-                if (dataConfig.contains("players")) {
-                    ConfigurationSection playersSection = dataConfig.getConfigurationSection("players");
-                    if (playersSection != null) {
-                        loadPlayerData(playersSection);
-                    }
+            // 加载玩家数据：从所属关系索引读取，为空时从旧版 data.yml 迁移
+            if (!membershipIndex.isEmpty()) {
+                for (Map.Entry<UUID, String> entry : membershipIndex.readAll().entrySet()) {
+                    addMember(entry.getKey(), entry.getValue());
+                }
+            } else if (dataConfig.contains("players")) {
+                ConfigurationSection playersSection = dataConfig.getConfigurationSection("players");
+                if (playersSection != null) {
+                    loadPlayerData(playersSection);
                 }
+                migrated |= !playerGroups.isEmpty();
+            }
+            long membersLoaded = System.nanoTime();
 
-                getLogger().info(getMessage("data-loaded")
-                        .replace("%groups%", String.valueOf(groupInventories.size()))
-                        .replace("%players%", String.valueOf(playerGroups.size())));
-            } catch (Exception e) {
-                getLogger().severe(getMessage("error-load-data") + ": " + e.getMessage());
-                e.printStackTrace();
+            if (migrated) {
+                // 迁移的数据全部标记为脏，由下一次保存写入新格式
+                dirtyGroups.addAll(groups.keySet());
+                dirtyPlayers.addAll(playerGroups.keySet());
             }
+
+            // 在已落盘数据之上重放预写日志
+            boolean journalPending = !journal.isEmpty();
+            long snapshotSeq = Math.max(membershipIndex.getJournalSeq(), dataConfig.getLong("journal-seq", 0L));
+            JournalReplayer replayer = new JournalReplayer();
+            int replayed = journal.replay(snapshotSeq, replayer);
+            replayer.flushAll(loadPool);
+            if (replayed > 0) {
+                getLogger().info("Replayed " + replayed + " journal records");
+            }
+
+            long loadEnd = System.nanoTime();
+            metrics.recordLoad(loadEnd - loadStart);
+            getLogger().info(String.format(Locale.ROOT, "Loaded data in %.1f ms (groups %.1f ms, members %.1f ms, journal %.1f ms)",
+                    (loadEnd - loadStart) / 1_000_000D, (groupsLoaded - loadStart) / 1_000_000D,
+                    (membersLoaded - groupsLoaded) / 1_000_000D, (loadEnd - membersLoaded) / 1_000_000D));
+            getLogger().info(getMessage("data-loaded",
+                    "groups", String.valueOf(groups.size()),
+                    "players", String.valueOf(playerGroups.size())));
+
+            if (migrated) {
+                getLogger().info("Migrating " + groups.size() + " groups and "
+                        + playerGroups.size() + " players to the per-group store");
+            }
+            // 迁移或重放后立即保存一次，同时截断日志
+            if (migrated || journalPending) {
+                saveData();
+            }
+        } catch (Exception e) {
+            getLogger().severe(getMessage("error-load-data") + ": " + e.getMessage());
+            e.printStackTrace();
         }
     }
 
-    private void loadGroupData(String groupName, ConfigurationSection groupsSection) {
+    private void loadGroupData(Map<String, GroupState> loaded, String groupName, long version, ItemStack[] items) {
         try {
-            Inventory groupInv = Bukkit.createInventory(null, 36,
-                    getMessage("group-inventory-title").replace("%group%", groupName));
-
-            if (groupsSection.contains(groupName + ".contents")) {
-                List<?> contents = groupsSection.getList(groupName + ".contents");
-                if (contents != null) {
-                    ItemStack[] items = new ItemStack[36];
-                    for (int i = 0; i < Math.min(contents.size(), 36); i++) {
-                        if (contents.get(i) instanceof ItemStack) {
-                            items[i] = (ItemStack) contents.get(i);
-                        }
-                    }
-                    groupInv.setContents(items);
-                }
-            }
-
-            groupInventories.put(groupName, groupInv);
-            groupMembers.put(groupName, ConcurrentHashMap.newKeySet());
+            loaded.put(groupName, GroupState.load(groupName, version, items));
         } catch (Exception e) {
             getLogger().warning("Failed to load group " + groupName + ": " + e.getMessage());
         }
     }
 
+    /**
+     * 读取旧版 data.yml 中以YAML序列化的组背包
+     */
+    private ItemStack[] readLegacyContents(String groupName, ConfigurationSection groupsSection) {
+        ItemStack[] items = new ItemStack[36];
+        List<?> contents = groupsSection.getList(groupName + ".contents");
+        if (contents != null) {
+            for (int i = 0; i < Math.min(contents.size(), 36); i++) {
+                if (contents.get(i) instanceof ItemStack) {
+                    items[i] = (ItemStack) contents.get(i);
+                }
+            }
+        }
+        return items;
+    }
+
     private void loadPlayerData(ConfigurationSection playersSection) {
         for (String uuidStr : playersSection.getKeys(false)) {
             try {
                 UUID playerId = UUID.fromString(uuidStr);
                 String groupName = playersSection.getString(uuidStr);
 
-                if (groupName != null && groupInventories.containsKey(groupName)) {
-                    playerGroups.put(playerId, groupName);
-                    groupMembers.get(groupName).add(playerId);
+                if (groupName != null) {
+                    addMember(playerId, groupName);
                 }
             } catch (IllegalArgumentException e) {
                 getLogger().warning(getMessage("error-invalid-uuid") + ": " + uuidStr);
@@ -266,38 +449,159 @@ public class SyncInventory extends JavaPlugin {
         }
     }
 
-    private void saveData() {
-        synchronized (syncLock) {
-            try {
-                File tempFile = new File(getDataFolder(), "data.tmp");
-                YamlConfiguration tempConfig = new YamlConfiguration();
+    private void addMember(UUID playerId, String groupName) {
+        GroupState group = groups.get(groupName);
+        if (group != null) {
+            playerGroups.put(playerId, groupName);
+            group.getMembers().add(playerId);
+        }
+    }
 
-                // 保存组数据
-                for (Map.Entry<String, Inventory> entry : groupInventories.entrySet()) {
-                    tempConfig.set("groups." + entry.getKey() + ".contents",
-                            Arrays.asList(entry.getValue().getContents()));
+    /**
+     * 预写日志重放，只在加载阶段调用
+     * 同组的槽位和清空记录先缓存，在该组被删除或重建之前以及重放结束时按版本号排序后应用
+     */
+    private final class JournalReplayer implements ChangeJournal.Replayer {
+        // 组名 -> 待应用的槽位增量，值为 null 的增量表示清空
+        private final Map<String, List<Map.Entry<Long, SlotDelta>>> pendingContents = new HashMap<>();
+
+        @Override
+        public void applySlots(String groupName, SlotDelta delta) {
+            pendingContents.computeIfAbsent(groupName, name -> new ArrayList<>())
+                    .add(new AbstractMap.SimpleImmutableEntry<>(delta.getVersion(), delta));
+        }
+
+        @Override
+        public void clearGroup(String groupName, long version) {
+            pendingContents.computeIfAbsent(groupName, name -> new ArrayList<>())
+                    .add(new AbstractMap.SimpleImmutableEntry<>(version, null));
+        }
+
+        @Override
+        public void join(UUID playerId, String groupName) {
+            if (!groups.containsKey(groupName)) return;
+            leave(playerId);
+            addMember(playerId, groupName);
+        }
+
+        @Override
+        public void leave(UUID playerId) {
+            String current = playerGroups.remove(playerId);
+            if (current != null && groups.containsKey(current)) {
+                groups.get(current).getMembers().remove(playerId);
+            }
+            dirtyPlayers.add(playerId);
+        }
+
+        @Override
+        public void createGroup(String groupName) {
+            flush(groupName);
+            if (!groups.containsKey(groupName)) {
+                groups.put(groupName, GroupState.create(groupName));
+                dirtyGroups.add(groupName);
+            }
+        }
+
+        @Override
+        public void deleteGroup(String groupName) {
+            flush(groupName);
+            GroupState group = groups.remove(groupName);
+            dirtyGroups.add(groupName);
+            if (group != null) {
+                for (UUID memberId : group.getMembers()) {
+                    playerGroups.remove(memberId);
+                    dirtyPlayers.add(memberId);
                 }
+            }
+        }
 
-                // 保存玩家数据
-                for (Map.Entry<UUID, String> entry : playerGroups.entrySet()) {
-                    tempConfig.set("players." + entry.getKey().toString(), entry.getValue());
+        /**
+         * 重放结束后应用剩余的记录，涉及的组先在线程池中并行读入
+         */
+        void flushAll(ForkJoinPool loadPool) throws IOException {
+            List<GroupState> touched = new ArrayList<>();
+            for (String groupName : pendingContents.keySet()) {
+                GroupState group = groups.get(groupName);
+                if (group != null) {
+                    touched.add(group);
                 }
+            }
+            MappedGroupStore.invoke(loadPool, () -> {
+                touched.parallelStream().forEach(SyncInventory.this::ensureResident);
+                return null;
+            });
 
-                // 原子写入
-                tempConfig.save(tempFile);
+            for (String groupName : new ArrayList<>(pendingContents.keySet())) {
+                flush(groupName);
+            }
+        }
 
-                if (dataFile.exists() && !dataFile.delete()) {
-                    throw new IOException(getMessage("error-delete-old-data-file"));
-                }
-                if (!tempFile.renameTo(dataFile)) {
-                    throw new IOException(getMessage("error-rename-temp-file"));
+        private void flush(String groupName) {
+            List<Map.Entry<Long, SlotDelta>> records = pendingContents.remove(groupName);
+            GroupState group = groups.get(groupName);
+            if (records == null || group == null) return;
+            // 有日志记录的组需要先读入已落盘的内容
+            if (ensureResident(group) == null) return;
+
+            records.sort(Map.Entry.comparingByKey());
+            for (Map.Entry<Long, SlotDelta> record : records) {
+                if (record.getValue() == null) {
+                    group.replayClear(record.getKey());
+                } else {
+                    group.replay(record.getValue());
                 }
+            }
+            dirtyGroups.add(groupName);
+        }
+    }
 
-                getLogger().info(getMessage("data-saved"));
-            } catch (IOException e) {
-                getLogger().severe(getMessage("error-save-data") + ": " + e.getMessage());
+    /**
+     * 无锁地取出脏组和脏玩家，组内容直接引用当前不可变版本，序列化和写盘交给IO线程
+     */
+    private void saveData() {
+        long drainStart = System.nanoTime();
+        // 编号先于取出脏数据分配，保证写入失败时退回的数据不会被已分配编号的快照截断
+        long snapshotId = DataPersistence.Snapshot.nextId();
+        // 先读序号再取版本，序号之后的变化在重放时按版本号覆盖。
+        // 各处修改都先标记为脏再写日志，序号不超过 journalSeq 的记录对应的组和玩家此刻都已标记，
+        // 一定包含在下面取出的脏数据中，截断这些记录不会丢失改动
+        long journalSeq = journal.currentSeq();
+
+        Map<String, GroupSnapshot> dirtyContents = new HashMap<>(dirtyGroups.size());
+        for (Iterator<String> iterator = dirtyGroups.iterator(); iterator.hasNext(); ) {
+            String groupName = iterator.next();
+            iterator.remove();
+            GroupState group = groups.get(groupName);
+            if (group == null) {
+                dirtyContents.put(groupName, null);
+                continue;
             }
+            // 未驻留的组内容与磁盘一致，不需要写入
+            GroupSnapshot snapshot = group.snapshot();
+            if (snapshot != null) {
+                dirtyContents.put(groupName, snapshot);
+            }
+        }
+        Map<UUID, String> dirtyMembership = new HashMap<>(dirtyPlayers.size());
+        for (Iterator<UUID> iterator = dirtyPlayers.iterator(); iterator.hasNext(); ) {
+            UUID playerId = iterator.next();
+            iterator.remove();
+            dirtyMembership.put(playerId, playerGroups.get(playerId));
         }
+        metrics.saveDrain().record(System.nanoTime() - drainStart);
+
+        persistence.submit(new DataPersistence.Snapshot(snapshotId, journalSeq, dirtyContents, dirtyMembership));
+    }
+
+    /**
+     * 写入失败后把快照中的组和玩家重新标记为脏
+     *
+     * @return 此刻已分配的最大快照编号，这些快照都可能不包含被退回的数据
+     */
+    long restoreDirty(Collection<String> groupNames, Collection<UUID> players) {
+        dirtyGroups.addAll(groupNames);
+        dirtyPlayers.addAll(players);
+        return DataPersistence.Snapshot.lastId();
     }
 
     @Override
@@ -340,6 +644,10 @@ public class SyncInventory extends JavaPlugin {
                 return handleReload(sender);
             case "language":
                 return handleLanguage(sender, args);
+            case "stats":
+                return handleStats(sender);
+            case "rollback":
+                return handleRollback(sender, args);
             case "help":
             default:
                 return handleHelp(sender);
@@ -370,17 +678,23 @@ public class SyncInventory extends JavaPlugin {
             return true;
         }
 
-        ItemStack[] backup = playerBackups.get(player.getUniqueId());
-        if (backup == null) {
-            player.sendMessage(getMessage("no-backup-found"));
-            return true;
-        }
+        // 备份不在内存中时在IO线程上读回，之后回到玩家所在线程恢复
+        playerBackups.load(player.getUniqueId(), backup -> platformScheduler.execute(player, () -> {
+            if (!player.isOnline()) return;
+            if (playerGroups.containsKey(player.getUniqueId())) {
+                player.sendMessage(getMessage("restore-in-group"));
+                return;
+            }
+            if (backup == null) {
+                player.sendMessage(getMessage("no-backup-found"));
+                return;
+            }
 
-        player.getInventory().setContents(backup);
-        player.updateInventory();
-        playerBackups.remove(player.getUniqueId());
-        player.sendMessage(getMessage("inventory-restored"));
-        markDataModified();
+            player.getInventory().setContents(backup);
+            player.updateInventory();
+            playerBackups.remove(player.getUniqueId());
+            player.sendMessage(getMessage("inventory-restored"));
+        }));
         return true;
     }
 
@@ -478,6 +792,8 @@ public class SyncInventory extends JavaPlugin {
 
         reloadConfig();
         currentLanguage = getConfig().getString("settings.language", "zh");
+        syncPolicies.load(getConfig().getConfigurationSection("sync-policies"), getLogger());
+        syncScheduler.configure();
         loadLanguageFile();
         sender.sendMessage(getMessage("config-reloaded"));
         return true;
@@ -491,7 +807,7 @@ public class SyncInventory extends JavaPlugin {
 
         Player player = (Player) sender;
         if (args.length < 2) {
-            player.sendMessage(getMessage("current-language").replace("%language%", currentLanguage));
+            player.sendMessage(getMessage("current-language", "language", currentLanguage));
             player.sendMessage(getMessage("usage-language"));
             return true;
         }
@@ -499,6 +815,145 @@ public class SyncInventory extends JavaPlugin {
         return setLanguage(player, args[1]);
     }
 
+    private boolean handleStats(CommandSender sender) {
+        if (!sender.hasPermission("syncinv.admin")) {
+            sender.sendMessage(getMessage("no-permission"));
+            return true;
+        }
+
+        Map<String, Object> stats = getStats();
+        sender.sendMessage(getMessage("stats-header"));
+        sender.sendMessage(getMessage("stats-overview",
+                "groups", String.valueOf(stats.get("groups")),
+                "players", String.valueOf(stats.get("total_players")),
+                "online", String.valueOf(stats.get("online_players")),
+                "backups", String.valueOf(stats.get("backups"))));
+        sender.sendMessage(getMessage("stats-activity",
+                "size", String.format(Locale.ROOT, "%.2f", (double) stats.get("average_group_size")),
+                "syncs", String.format(Locale.ROOT, "%.1f", (double) stats.get("syncs_per_minute"))));
+
+        // 只列出 15 分钟内出现过的触发事件
+        boolean anyTrigger = false;
+        for (SyncTrigger trigger : SyncTrigger.values()) {
+            SyncMetrics.Counter counter = metrics.trigger(trigger);
+            if (metrics.rate(counter, SyncMetrics.WINDOWS[SyncMetrics.WINDOWS.length - 1]) <= 0D) continue;
+            anyTrigger = true;
+            sender.sendMessage(getMessage("stats-trigger",
+                    "trigger", trigger.getConfigKey(),
+                    "rates", metrics.formatRates(counter)));
+        }
+        if (!anyTrigger) {
+            sender.sendMessage(getMessage("stats-no-triggers"));
+        }
+
+        sender.sendMessage(getMessage("stats-members-updated", "rates", metrics.formatRates(metrics.membersUpdated())));
+        sender.sendMessage(getMessage("stats-slots-written", "rates", metrics.formatRates(metrics.slotsWritten())));
+        sender.sendMessage(getMessage("stats-unchanged-syncs", "rates", metrics.formatRates(metrics.unchangedSyncs())));
+        sender.sendMessage(getMessage("stats-suppressed-echoes", "rates", metrics.formatRates(metrics.suppressedEchoes())));
+        sender.sendMessage(getMessage("stats-capture-retries", "rates", metrics.formatRates(metrics.captureRetries())));
+        sender.sendMessage(getMessage("stats-merged-slots", "rates", metrics.formatRates(metrics.mergedSlots())));
+        sender.sendMessage(getMessage("stats-relocated-items", "rates", metrics.formatRates(metrics.relocatedItems())));
+        sender.sendMessage(getMessage("stats-push", "latency", metrics.formatLatencies(metrics.push())));
+        sender.sendMessage(getMessage("stats-fan-out", "latency", metrics.formatLatencies(metrics.fanOut())));
+        sender.sendMessage(getMessage("stats-save", "latency", metrics.formatLatencies(metrics.save())));
+        sender.sendMessage(getMessage("stats-save-drain", "latency", metrics.formatLatencies(metrics.saveDrain())));
+        sender.sendMessage(getMessage("stats-load",
+                "time", String.format(Locale.ROOT, "%.2f", metrics.getLastLoadMillis())));
+        SyncBudget budget = syncScheduler.getBudget();
+        sender.sendMessage(getMessage("stats-budget",
+                "mspt", String.format(Locale.ROOT, "%.2f", budget.getAverageTickMillis()),
+                "factor", String.format(Locale.ROOT, "%.2f", budget.debounceFactor()),
+                "deferred", String.valueOf(syncScheduler.getDeferredFanOuts())));
+        return true;
+    }
+
+    /**
+     * /syncinv rollback <group> <time>：把组背包恢复到指定时长之前的内容，
+     * 历史在IO线程上重建，完成后回到全局线程提交为新版本并推送给在线成员
+     */
+    private boolean handleRollback(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("syncinv.admin")) {
+            sender.sendMessage(getMessage("no-permission"));
+            return true;
+        }
+        if (args.length < 3) {
+            sender.sendMessage(getMessage("usage-rollback"));
+            return true;
+        }
+
+        String groupName = args[1];
+        GroupState group = groups.get(groupName);
+        if (group == null) {
+            sender.sendMessage(getMessage("group-not-exists", "group", groupName));
+            return true;
+        }
+        long duration = parseDuration(args[2]);
+        if (duration <= 0L) {
+            sender.sendMessage(getMessage("rollback-invalid-time", "time", args[2]));
+            return true;
+        }
+
+        // 先把已追加的日志记录交给IO线程，重建排在其后执行
+        journal.commit();
+        history.reconstruct(groupName, System.currentTimeMillis() - duration, items ->
+                platformScheduler.runGlobalLater(() -> finishRollback(sender, group, args[2], items), 0L));
+        sender.sendMessage(getMessage("rollback-started", "group", groupName, "time", args[2]));
+        return true;
+    }
+
+    private void finishRollback(CommandSender sender, GroupState group, String time, ItemStack[] items) {
+        String groupName = group.getName();
+        if (items == null) {
+            sender.sendMessage(getMessage("rollback-no-history", "group", groupName, "time", time));
+            return;
+        }
+        if (groups.get(groupName) != group || ensureResident(group) == null) {
+            sender.sendMessage(getMessage("group-not-exists", "group", groupName));
+            return;
+        }
+
+        SlotDelta delta = group.restore(items);
+        if (!delta.isEmpty()) {
+            markGroupDirty(groupName);
+            journal.appendSlots(groupName, delta);
+            if (crossServer != null) {
+                crossServer.publishSlots(group, delta);
+            }
+            platformScheduler.executeAll(new ArrayList<>(group.getOnlineMembers()),
+                    PlayerSyncSession::getPlayer, this::syncInventoryToPlayer);
+        }
+        sender.sendMessage(getMessage("rollback-success", "group", groupName, "time", time));
+    }
+
+    /**
+     * 解析 30s、10m、1h30m、2d 形式的时长，格式错误时返回 -1
+     */
+    private static long parseDuration(String input) {
+        Matcher matcher = DURATION_PART.matcher(input.toLowerCase(Locale.ROOT));
+        long total = 0L;
+        int end = 0;
+        while (matcher.find()) {
+            if (matcher.start() != end) return -1L;
+            long value = Long.parseLong(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "s":
+                    total += TimeUnit.SECONDS.toMillis(value);
+                    break;
+                case "m":
+                    total += TimeUnit.MINUTES.toMillis(value);
+                    break;
+                case "h":
+                    total += TimeUnit.HOURS.toMillis(value);
+                    break;
+                default:
+                    total += TimeUnit.DAYS.toMillis(value);
+                    break;
+            }
+            end = matcher.end();
+        }
+        return end == input.length() && total > 0L ? total : -1L;
+    }
+
     private boolean handleHelp(CommandSender sender) {
         if (sender instanceof Player) {
             sendHelp((Player) sender);
@@ -514,20 +969,14 @@ public class SyncInventory extends JavaPlugin {
             return true;
         }
 
-        synchronized (syncLock) {
-            if (groupInventories.containsKey(groupName)) {
-                player.sendMessage(getMessage("group-exists").replace("%group%", groupName));
-                return true;
-            }
-
-            Inventory groupInv = Bukkit.createInventory(null, 36,
-                    getMessage("group-inventory-title").replace("%group%", groupName));
-            groupInventories.put(groupName, groupInv);
-            groupMembers.put(groupName, ConcurrentHashMap.newKeySet());
+        if (groups.putIfAbsent(groupName, GroupState.create(groupName)) != null) {
+            player.sendMessage(getMessage("group-exists", "group", groupName));
+            return true;
         }
+        markGroupDirty(groupName);
+        journal.appendCreate(groupName);
 
-        player.sendMessage(getMessage("group-created").replace("%group%", groupName));
-        markDataModified();
+        player.sendMessage(getMessage("group-created", "group", groupName));
         return true;
     }
 
@@ -542,43 +991,47 @@ public class SyncInventory extends JavaPlugin {
     }
 
     private boolean deleteGroup(Player player, String groupName) {
-        synchronized (syncLock) {
-            if (!groupInventories.containsKey(groupName)) {
-                player.sendMessage(getMessage("group-not-exists").replace("%group%", groupName));
-                return true;
-            }
-
-            // 通知并移除所有组成员
-            Set<UUID> members = new HashSet<>(groupMembers.get(groupName));
-            for (UUID memberId : members) {
-                Player member = Bukkit.getPlayer(memberId);
-                if (member != null && member.isOnline()) {
-                    member.sendMessage(getMessage("group-deleted-notify").replace("%group%", groupName));
-                    // 恢复备份背包（如果有）
-                    restorePlayerInventory(member);
-                }
-                playerGroups.remove(memberId);
-            }
+        GroupState group = groups.remove(groupName);
+        if (group == null) {
+            player.sendMessage(getMessage("group-not-exists", "group", groupName));
+            return true;
+        }
+        syncScheduler.forget(groupName);
+        for (UUID memberId : group.getMembers()) {
+            playerGroups.remove(memberId, groupName);
+            dirtyPlayers.add(memberId);
+        }
+        markGroupDirty(groupName);
+        journal.appendDelete(groupName);
 
-            groupInventories.remove(groupName);
-            groupMembers.remove(groupName);
+        // 通知在线成员并恢复其备份背包（如果有）
+        for (PlayerSyncSession session : new ArrayList<>(group.getOnlineMembers())) {
+            session.bind(null);
+            Player member = session.getPlayer();
+            member.sendMessage(getMessage("group-deleted-notify", "group", groupName));
+            restorePlayerInventory(member);
         }
 
-        player.sendMessage(getMessage("group-deleted").replace("%group%", groupName));
-        markDataModified();
+        player.sendMessage(getMessage("group-deleted", "group", groupName));
         return true;
     }
 
+    /**
+     * 恢复玩家的备份背包，没有备份时清空；备份不在内存中时读回后再在玩家所在线程上恢复
+     */
     private void restorePlayerInventory(Player player) {
-        ItemStack[] backup = playerBackups.get(player.getUniqueId());
-        if (backup != null) {
-            player.getInventory().setContents(backup);
-            playerBackups.remove(player.getUniqueId());
-            player.sendMessage(getMessage("inventory-restored"));
-        } else {
-            player.getInventory().clear();
-        }
-        player.updateInventory();
+        playerBackups.load(player.getUniqueId(), backup -> platformScheduler.execute(player, () -> {
+            // 读取期间重新加入了组时背包已由组接管
+            if (!player.isOnline() || playerGroups.containsKey(player.getUniqueId())) return;
+            if (backup != null) {
+                player.getInventory().setContents(backup);
+                playerBackups.remove(player.getUniqueId());
+                player.sendMessage(getMessage("inventory-restored"));
+            } else {
+                player.getInventory().clear();
+            }
+            player.updateInventory();
+        }));
     }
 
     private boolean joinGroup(CommandSender sender, String[] args) {
@@ -601,7 +1054,7 @@ public class SyncInventory extends JavaPlugin {
             targetPlayer = Bukkit.getPlayer(args[1]);
             groupName = args[2];
             if (targetPlayer == null) {
-                sender.sendMessage(getMessage("error-player-not-found").replace("%player%", args[1]));
+                sender.sendMessage(getMessage("error-player-not-found", "player", args[1]));
                 return true;
             }
         } else {
@@ -610,8 +1063,8 @@ public class SyncInventory extends JavaPlugin {
         }
 
         // 检查组是否存在
-        if (!groupInventories.containsKey(groupName)) {
-            sender.sendMessage(getMessage("group-not-exists").replace("%group%", groupName));
+        if (!groups.containsKey(groupName)) {
+            sender.sendMessage(getMessage("group-not-exists", "group", groupName));
             return true;
         }
 
@@ -619,7 +1072,7 @@ public class SyncInventory extends JavaPlugin {
         if (playerGroups.containsKey(targetPlayer.getUniqueId())) {
             String currentGroup = playerGroups.get(targetPlayer.getUniqueId());
             if (currentGroup.equals(groupName)) {
-                sender.sendMessage(getMessage("player-in-group").replace("%group%", groupName));
+                sender.sendMessage(getMessage("player-in-group", "group", groupName));
                 return true;
             }
             // 自动退出当前组
@@ -641,67 +1094,70 @@ public class SyncInventory extends JavaPlugin {
         createBackup(player);
         pendingJoins.put(player.getUniqueId(), groupName);
 
-        String confirmMessage = getMessage("join-confirm-message").replace("%group%", groupName);
+        String confirmMessage = getMessage("join-confirm-message", "group", groupName);
         confirmMessage += "\n" + getMessage("join-confirm-timeout");
         player.sendMessage(confirmMessage);
 
         // 10秒后自动取消
-        if (isFolia()) {
-            getServer().getGlobalRegionScheduler().runDelayed(this, task -> {
-                if (pendingJoins.remove(player.getUniqueId()) != null) {
-                    playerBackups.remove(player.getUniqueId());
-                    player.sendMessage(getMessage("join-timeout"));
-                }
-            }, 200L);
-        } else {
-            new BukkitRunnable() {
-                @Override
-                public void run() {
-                    if (pendingJoins.remove(player.getUniqueId()) != null) {
-                        playerBackups.remove(player.getUniqueId());
-                        player.sendMessage(getMessage("join-timeout"));
-                    }
-                }
-            }.runTaskLater(this, 200L);
-        }
+        platformScheduler.runGlobalLater(() -> {
+            if (pendingJoins.remove(player.getUniqueId()) != null) {
+                playerBackups.remove(player.getUniqueId());
+                player.sendMessage(getMessage("join-timeout"));
+            }
+        }, 200L);
     }
 
     private void createBackup(Player player) {
-        ItemStack[] backup = new ItemStack[36];
+        // getContents 只复制了数组，其中的 CraftItemStack 仍是玩家背包的镜像，逐个克隆后再交给IO线程序列化
         ItemStack[] contents = player.getInventory().getContents();
-        System.arraycopy(contents, 0, backup, 0, Math.min(contents.length, 36));
-        playerBackups.put(player.getUniqueId(), backup);
+        for (int slot = 0; slot < contents.length; slot++) {
+            if (contents[slot] != null) {
+                contents[slot] = contents[slot].clone();
+            }
+        }
+        playerBackups.put(player.getUniqueId(), contents);
         player.sendMessage(getMessage("backup-created"));
     }
 
     private void forceLeaveGroup(Player player) {
-        synchronized (syncLock) {
-            String currentGroup = playerGroups.get(player.getUniqueId());
-            if (currentGroup != null) {
-                groupMembers.get(currentGroup).remove(player.getUniqueId());
-                playerGroups.remove(player.getUniqueId());
-            }
+        String currentGroup = playerGroups.remove(player.getUniqueId());
+        if (currentGroup != null) {
+            removeMember(player.getUniqueId(), currentGroup);
+        }
+    }
+
+    private void removeMember(UUID playerId, String groupName) {
+        GroupState group = groups.get(groupName);
+        if (group != null) {
+            group.getMembers().remove(playerId);
         }
+        bindSession(playerId, null);
+        dirtyPlayers.add(playerId);
+        journal.appendLeave(playerId);
     }
 
     private boolean actuallyJoinGroup(CommandSender sender, Player targetPlayer, String groupName) {
-        synchronized (syncLock) {
-            playerGroups.put(targetPlayer.getUniqueId(), groupName);
-            groupMembers.get(groupName).add(targetPlayer.getUniqueId());
+        GroupState group = groups.get(groupName);
+        if (group == null) {
+            sender.sendMessage(getMessage("group-not-exists", "group", groupName));
+            return true;
         }
+        playerGroups.put(targetPlayer.getUniqueId(), groupName);
+        group.getMembers().add(targetPlayer.getUniqueId());
+        bindSession(targetPlayer.getUniqueId(), group);
+        dirtyPlayers.add(targetPlayer.getUniqueId());
+        journal.appendJoin(targetPlayer.getUniqueId(), groupName);
 
         // 同步背包
         syncInventoryToGroup(targetPlayer, groupName);
 
         // 发送消息
         if (sender != targetPlayer) {
-            sender.sendMessage(getMessage("joined-group-other")
-                    .replace("%player%", targetPlayer.getName())
-                    .replace("%group%", groupName));
+            sender.sendMessage(getMessage("joined-group-other",
+                    "player", targetPlayer.getName(),
+                    "group", groupName));
         }
-        targetPlayer.sendMessage(getMessage("joined-group").replace("%group%", groupName));
-
-        markDataModified();
+        targetPlayer.sendMessage(getMessage("joined-group", "group", groupName));
         return true;
     }
 
@@ -721,72 +1177,69 @@ public class SyncInventory extends JavaPlugin {
             }
             targetPlayer = Bukkit.getPlayer(args[1]);
             if (targetPlayer == null) {
-                sender.sendMessage(getMessage("error-player-not-found").replace("%player%", args[1]));
+                sender.sendMessage(getMessage("error-player-not-found", "player", args[1]));
                 return true;
             }
         }
 
-        String groupName;
-        synchronized (syncLock) {
-            groupName = playerGroups.get(targetPlayer.getUniqueId());
-            if (groupName == null) {
-                sender.sendMessage(getMessage("not-in-group-other").replace("%player%", targetPlayer.getName()));
-                return true;
-            }
-
-            // 从组中移除
-            groupMembers.get(groupName).remove(targetPlayer.getUniqueId());
-            playerGroups.remove(targetPlayer.getUniqueId());
+        String groupName = playerGroups.remove(targetPlayer.getUniqueId());
+        if (groupName == null) {
+            sender.sendMessage(getMessage("not-in-group-other", "player", targetPlayer.getName()));
+            return true;
         }
 
+        // 从组中移除
+        removeMember(targetPlayer.getUniqueId(), groupName);
+
         // 恢复背包
         restorePlayerInventory(targetPlayer);
 
         // 发送消息
         if (sender != targetPlayer) {
-            sender.sendMessage(getMessage("left-group-other")
-                    .replace("%player%", targetPlayer.getName())
-                    .replace("%group%", groupName));
+            sender.sendMessage(getMessage("left-group-other",
+                    "player", targetPlayer.getName(),
+                    "group", groupName));
         }
-        targetPlayer.sendMessage(getMessage("left-group").replace("%group%", groupName));
+        targetPlayer.sendMessage(getMessage("left-group", "group", groupName));
 
-        markDataModified();
+        dirtyPlayers.add(targetPlayer.getUniqueId());
         return true;
     }
 
     private boolean listGroups(Player player) {
-        if (groupInventories.isEmpty()) {
+        if (groups.isEmpty()) {
             player.sendMessage(getMessage("no-groups"));
             return true;
         }
 
         player.sendMessage(getMessage("group-list-header"));
-        for (String group : groupInventories.keySet()) {
-            int memberCount = groupMembers.get(group).size();
-            player.sendMessage(getMessage("group-list-item")
-                    .replace("%group%", group)
-                    .replace("%count%", String.valueOf(memberCount)));
+        for (GroupState group : groups.values()) {
+            int memberCount = group.getMembers().size();
+            player.sendMessage(getMessage("group-list-item",
+                    "group", group.getName(),
+                    "count", String.valueOf(memberCount)));
         }
         return true;
     }
 
     private boolean listMembers(Player player, String groupName) {
-        if (!groupInventories.containsKey(groupName)) {
-            player.sendMessage(getMessage("group-not-exists").replace("%group%", groupName));
+        GroupState group = groups.get(groupName);
+        if (group == null) {
+            player.sendMessage(getMessage("group-not-exists", "group", groupName));
             return true;
         }
 
-        Set<UUID> members = groupMembers.get(groupName);
+        Set<UUID> members = group.getMembers();
         if (members.isEmpty()) {
-            player.sendMessage(getMessage("no-members").replace("%group%", groupName));
+            player.sendMessage(getMessage("no-members", "group", groupName));
             return true;
         }
 
-        player.sendMessage(getMessage("member-list-header").replace("%group%", groupName));
+        player.sendMessage(getMessage("member-list-header", "group", groupName));
         for (UUID memberId : members) {
             Player member = Bukkit.getPlayer(memberId);
             String playerName = member != null ? member.getName() : "Unknown";
-            player.sendMessage(getMessage("member-list-item").replace("%player%", playerName));
+            player.sendMessage(getMessage("member-list-item", "player", playerName));
         }
         return true;
     }
@@ -807,7 +1260,7 @@ public class SyncInventory extends JavaPlugin {
         currentLanguage = language.toLowerCase();
         loadLanguageFile();
 
-        player.sendMessage(getMessage("language-changed").replace("%language%", language));
+        player.sendMessage(getMessage("language-changed", "language", language));
         return true;
     }
 
@@ -819,6 +1272,8 @@ public class SyncInventory extends JavaPlugin {
             player.sendMessage(getMessage("help-members"));
             player.sendMessage(getMessage("help-language"));
             player.sendMessage(getMessage("help-reload"));
+            player.sendMessage(getMessage("help-stats"));
+            player.sendMessage(getMessage("help-rollback"));
         }
         if (player.hasPermission("syncinv.join")) {
             player.sendMessage(getMessage("help-join"));
@@ -832,12 +1287,42 @@ public class SyncInventory extends JavaPlugin {
     }
 
     public void syncInventoryToGroup(Player player, String groupName) {
-        Inventory groupInv = groupInventories.get(groupName);
-        if (groupInv == null) return;
+        GroupState group = groups.get(groupName);
+        if (group == null) return;
+
+        GroupSnapshot snapshot = ensureResident(group);
+        if (snapshot == null) return;
+        player.getInventory().setContents(snapshot.toArray());
+        player.updateInventory();
+        metrics.membersUpdated().increment();
+        metrics.slotsWritten().add(GroupState.SLOT_COUNT);
+
+        PlayerSyncSession session = sessions.get(player.getUniqueId());
+        if (session != null && session.getGroup() == group) {
+            session.applied(snapshot.getVersion());
+            session.resetBaseline(snapshot);
+        }
+    }
+
+    /**
+     * 把组背包拉取到会话玩家，玩家背包已是当前版本时跳过
+     */
+    void syncInventoryToPlayer(PlayerSyncSession session) {
+        GroupState group = session.getGroup();
+        if (group == null) return;
 
-        ItemStack[] groupContents = Arrays.copyOfRange(groupInv.getContents(), 0, 36);
-        player.getInventory().setContents(groupContents);
+        GroupSnapshot snapshot = ensureResident(group);
+        if (snapshot == null || snapshot.getVersion() == session.getLastAppliedVersion()) return;
+
+        long start = System.nanoTime();
+        Player player = session.getPlayer();
+        player.getInventory().setContents(snapshot.toArray());
         player.updateInventory();
+        session.applied(snapshot.getVersion());
+        session.resetBaseline(snapshot);
+        syncScheduler.getBudget().record(System.nanoTime() - start);
+        metrics.membersUpdated().increment();
+        metrics.slotsWritten().add(GroupState.SLOT_COUNT);
     }
 
     public void cleanupPendingJoin(UUID playerId) {
@@ -852,49 +1337,221 @@ public class SyncInventory extends JavaPlugin {
     }
 
     public void syncInventoryFromPlayer(Player player) {
+        PlayerSyncSession session = sessions.get(player.getUniqueId());
+        if (session != null) {
+            syncInventoryFromPlayer(session);
+        }
+    }
+
+    void syncInventoryFromPlayer(PlayerSyncSession session) {
+        GroupState group = session.getGroup();
+        if (group == null || ensureResident(group) == null) return;
+
+        // 只取出与当前版本相比变化的槽位，以CAS提交为组背包的新版本
+        long captureStart = System.nanoTime();
+        Player player = session.getPlayer();
+        Inventory playerInv = player.getInventory();
+        session.observe(playerInv::getItem);
+        CaptureResult result = group.capture(session, metrics);
+        // 合并结果和移到空槽位的物品写回推送者自己的背包
+        if (result.getWriteBackSlots() != 0L) {
+            result.writeBack(playerInv);
+            player.updateInventory();
+        }
+        metrics.mergedSlots().add(result.getMergedSlots());
+        metrics.relocatedItems().add(result.getRelocatedItems());
+        SlotDelta delta = result.getDelta();
+        long capturedAt = System.nanoTime();
+        metrics.push().record(capturedAt - captureStart);
+        syncScheduler.getBudget().record(capturedAt - captureStart);
+        if (delta.isEmpty()) {
+            metrics.unchangedSyncs().increment();
+            return;
+        }
+        metrics.commits().increment();
+        session.applied(delta.getVersion());
+        markGroupDirty(group.getName());
+        journal.appendSlots(group.getName(), delta);
+        if (crossServer != null) {
+            crossServer.publishSlots(group, delta);
+        }
+
+        // 分发给其他在线成员，合并调度器保证每组每tick最多调用一次
+        fanOut(group, delta, session, capturedAt);
+    }
+
+    /**
+     * 把增量写入组内在线成员的背包，source 为提交增量的玩家，不再写回；
+     * 来自其他服务器的增量没有 source
+     */
+    private void fanOut(GroupState group, SlotDelta delta, PlayerSyncSession source, long capturedAt) {
+        // 只遍历在线成员，离线成员再多也不影响分发
+        Set<PlayerSyncSession> online = group.getOnlineMembers();
+        List<PlayerSyncSession> recipients = new ArrayList<>(online.size());
+        for (PlayerSyncSession member : online) {
+            if (member != source) {
+                recipients.add(member);
+            }
+        }
+        if (recipients.isEmpty()) return;
+
+        // 成员背包只能在其所在线程修改，整批提交给调度层；本tick预算用完时顺延
+        SyncBudget budget = syncScheduler.getBudget();
+        syncScheduler.submitFanOut(() -> platformScheduler.executeAll(recipients, PlayerSyncSession::getPlayer, member -> {
+            if (member.getGroup() == group) {
+                long start = System.nanoTime();
+                int written = member.receive(delta);
+                member.getPlayer().updateInventory();
+                member.applied(delta.getVersion());
+                long end = System.nanoTime();
+                budget.record(end - start);
+                metrics.fanOut().record(end - capturedAt);
+                metrics.membersUpdated().increment();
+                metrics.slotsWritten().add(written);
+            }
+        }));
+    }
+
+    /**
+     * 写入其他服务器提交的增量或清空（delta 为 null），在全局线程调用；
+     * 增量与本服的并发改动按槽位合并，不同物品争用同一槽位时保留服务器 ID 较小一方的物品。
+     * 只合并到本服已有的组：组的创建和删除不跨服同步，本服没有同名组时直接忽略。
+     * 写入后推送给本服在线成员但不再转发
+     */
+    void applyRemote(String origin, String groupName, SlotDelta delta) {
+        GroupState group = groups.get(groupName);
+        if (group == null || ensureResident(group) == null) return;
+
+        if (delta == null) {
+            clearGroup(group, false);
+            return;
+        }
+
+        boolean remoteFirst = origin.compareTo(crossServer.getServerId()) < 0;
+        SlotDelta applied = group.merge(delta, remoteFirst, item -> getLogger().warning(
+                "No free slot in group " + groupName + " for " + item + " displaced by a change from " + origin));
+        if (applied.isEmpty()) return;
+        markGroupDirty(groupName);
+        journal.appendSlots(groupName, applied);
+        fanOut(group, applied, null, System.nanoTime());
+    }
+
+    /**
+     * 以一个新版本清空组背包，在线成员的背包经由常规写入路径在各自线程上清空；
+     * publish 为 true 时同时发布给其他服务器。组已为空时什么也不做并返回 null，否则返回清空前的版本
+     */
+    GroupSnapshot clearGroup(GroupState group, boolean publish) {
+        GroupSnapshot previous = group.clear();
+        if (previous == null) return null;
+        String groupName = group.getName();
+        markGroupDirty(groupName);
+        journal.appendClear(groupName, previous.getVersion() + 1);
+        if (publish && crossServer != null) {
+            crossServer.publishClear(group, previous.getVersion() + 1);
+        }
+        platformScheduler.executeAll(new ArrayList<>(group.getOnlineMembers()),
+                PlayerSyncSession::getPlayer, this::syncInventoryToPlayer);
+        return previous;
+    }
+
+    /**
+     * 玩家加入服务器时建立会话，绑定其所在组并在玩家所在线程上读入组内容
+     */
+    PlayerSyncSession openSession(Player player) {
         String groupName = playerGroups.get(player.getUniqueId());
-        if (groupName == null) return;
+        GroupState group = getGroup(groupName);
+        PlayerSyncSession session = new PlayerSyncSession(player, group, metrics);
+        sessions.put(player.getUniqueId(), session);
+        if (group != null) {
+            ensureResident(group);
+        }
+        return session;
+    }
 
-        Inventory groupInv = groupInventories.get(groupName);
-        if (groupInv == null) return;
+    /**
+     * 确保组内容已在内存中并返回当前版本，读取失败时返回 null
+     */
+    GroupSnapshot ensureResident(GroupState group) {
+        return group.ensureResident(this::readGroup);
+    }
 
-        // 同步主背包内容到组背包
-        ItemStack[] playerContents = Arrays.copyOfRange(player.getInventory().getContents(), 0, 36);
-        groupInv.setContents(playerContents);
+    private GroupSnapshot readGroup(String groupName) {
+        try {
+            return groupStore.read(groupName);
+        } catch (IOException e) {
+            getLogger().severe(getMessage("error-load-data") + ": " + groupName + ": " + e.getMessage());
+            return null;
+        }
+    }
 
-        // 异步同步给其他在线成员，避免阻塞主线程
-        Set<UUID> members = groupMembers.get(groupName);
-        if (members == null || members.size() <= 1) return; // 如果只有当前玩家，无需同步
+    /**
+     * 把没有在线成员的组移出内存：空闲超过 group-idle-minutes 的组，以及超出 group-memory-budget 时
+     * 按最近活跃时间从旧到新的组。只回收已经完整落盘的组，之后的读取直接从存储重新加载
+     */
+    private void evictIdleGroups() {
+        long idleMillis = getConfig().getLong("settings.group-idle-minutes", 30L) * 60_000L;
+        long budgetBytes = getConfig().getLong("settings.group-memory-budget", 0L) * 1024L * 1024L;
+
+        // 活跃时间先取出再排序，排序期间的变化由 evict 再次检查；
+        // 有在线成员的组刷新活跃时间，不参与回收
+        List<Map.Entry<GroupState, Long>> candidates = new ArrayList<>();
+        long residentBytes = 0L;
+        int resident = 0;
+        for (GroupState group : groups.values()) {
+            if (!group.getOnlineMembers().isEmpty()) {
+                group.touch();
+            }
+            if (!group.isResident()) continue;
+            resident++;
+            residentBytes += groupStore.contentBytes(group.getName());
+            if (group.getOnlineMembers().isEmpty()) {
+                candidates.add(new AbstractMap.SimpleImmutableEntry<>(group, group.getLastActiveMillis()));
+            }
+        }
+        candidates.sort(Map.Entry.comparingByValue());
 
-        for (UUID memberId : members) {
-            if (memberId.equals(player.getUniqueId())) continue;
+        long now = System.currentTimeMillis();
+        for (Map.Entry<GroupState, Long> candidate : candidates) {
+            boolean idle = now - candidate.getValue() >= idleMillis;
+            boolean overBudget = budgetBytes > 0L && residentBytes > budgetBytes;
+            if (!idle && !overBudget) break;
 
-            Player member = Bukkit.getPlayer(memberId);
-            // 检查玩家是否仍在组中
-            if (member != null && member.isOnline() &&
-                    groupName.equals(playerGroups.get(memberId))) {
-                // 延迟1tick执行，避免在事件处理过程中修改背包
-                if (isFolia()) {
-                    member.getScheduler().run(this, task -> {
-                        synchronized (syncLock) {
-                            if (groupName.equals(playerGroups.get(memberId))) {
-                                member.getInventory().setContents(playerContents);
-                                member.updateInventory();
-                            }
-                        }
-                    }, null);
-                } else {
-                    Bukkit.getScheduler().runTaskLater(this, () -> {
-                        if (member.isOnline() && groupName.equals(playerGroups.get(memberId))) {
-                            member.getInventory().setContents(playerContents);
-                            member.updateInventory();
-                        }
-                    }, 1L);
-                }
+            GroupState group = candidate.getKey();
+            String groupName = group.getName();
+            GroupSnapshot snapshot = group.snapshot();
+            if (snapshot == null || dirtyGroups.contains(groupName)
+                    || !groupStore.isPersisted(groupName, snapshot.getVersion())) {
+                continue;
             }
+            if (group.evict(snapshot, candidate.getValue())) {
+                resident--;
+                residentBytes -= groupStore.contentBytes(groupName);
+                groupStore.release(groupName);
+            }
+        }
+        residentGroups = resident;
+    }
+
+    /**
+     * 玩家退出服务器时丢弃会话
+     */
+    PlayerSyncSession closeSession(UUID playerId) {
+        PlayerSyncSession session = sessions.remove(playerId);
+        if (session != null) {
+            session.close();
         }
+        return session;
+    }
 
-        markDataModified();
+    PlayerSyncSession getSession(Player player) {
+        return sessions.get(player.getUniqueId());
+    }
+
+    private void bindSession(UUID playerId, GroupState group) {
+        PlayerSyncSession session = sessions.get(playerId);
+        if (session != null) {
+            session.bind(group);
+        }
     }
 
     public boolean isInGroup(Player player) {
@@ -905,53 +1562,94 @@ public class SyncInventory extends JavaPlugin {
         return playerGroups.get(player.getUniqueId());
     }
 
-    void markDataModified() {
-        dataModified = true;
+    PlatformScheduler getPlatformScheduler() {
+        return platformScheduler;
+    }
+
+    SyncPolicyRegistry getSyncPolicies() {
+        return syncPolicies;
+    }
+
+    GroupSyncScheduler getSyncScheduler() {
+        return syncScheduler;
+    }
+
+    GroupState getGroup(String groupName) {
+        return groupName == null ? null : groups.get(groupName);
+    }
+
+    SyncMetrics getMetrics() {
+        return metrics;
+    }
+
+    ChangeJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * 在写日志之前调用，见 saveData 中对序号的说明
+     */
+    void markGroupDirty(String groupName) {
+        dirtyGroups.add(groupName);
     }
 
     /**
      * 清理离线玩家的数据
      */
     public void cleanupOfflinePlayers() {
-        synchronized (syncLock) {
-            Set<UUID> toRemove = new HashSet<>();
-
-            for (UUID playerId : playerGroups.keySet()) {
-                Player player = Bukkit.getPlayer(playerId);
-                if (player == null || !player.isOnline()) {
-                    // 可以添加更复杂的逻辑，比如检查玩家离线时间
-                    // 这里简单地保留所有玩家数据
-                }
+        Set<UUID> toRemove = new HashSet<>();
+
+        for (UUID playerId : playerGroups.keySet()) {
+            Player player = Bukkit.getPlayer(playerId);
+            if (player == null || !player.isOnline()) {
+                // 可以添加更复杂的逻辑，比如检查玩家离线时间
+                // 这里简单地保留所有玩家数据
             }
+        }
 
-            // 清理空组
-            Iterator<Map.Entry<String, Set<UUID>>> groupIterator = groupMembers.entrySet().iterator();
-            while (groupIterator.hasNext()) {
-                Map.Entry<String, Set<UUID>> entry = groupIterator.next();
-                if (entry.getValue().isEmpty()) {
-                    String groupName = entry.getKey();
-                    groupInventories.remove(groupName);
-                    groupIterator.remove();
-                    getLogger().info("Cleaned up empty group: " + groupName);
-                    markDataModified();
-                }
+        // 清理空组
+        for (GroupState group : groups.values()) {
+            if (group.getMembers().isEmpty() && groups.remove(group.getName(), group)) {
+                String groupName = group.getName();
+                syncScheduler.forget(groupName);
+                markGroupDirty(groupName);
+                journal.appendDelete(groupName);
+                getLogger().info("Cleaned up empty group: " + groupName);
             }
         }
     }
 
     /**
-     * 获取插件统计信息
+     * 获取插件统计信息，各项都是随变化增量维护的计数，读取不遍历组和玩家
      */
     public Map<String, Object> getStats() {
+        int groupCount = groups.size();
+        int memberCount = playerGroups.size();
         Map<String, Object> stats = new HashMap<>();
-        stats.put("groups", groupInventories.size());
-        stats.put("total_players", playerGroups.size());
-        stats.put("online_players", playerGroups.keySet().stream()
-                .mapToInt(uuid -> {
-                    Player p = Bukkit.getPlayer(uuid);
-                    return (p != null && p.isOnline()) ? 1 : 0;
-                }).sum());
+        stats.put("groups", groupCount);
+        stats.put("resident_groups", residentGroups);
+        stats.put("total_players", memberCount);
+        stats.put("online_players", metrics.getOnlineMembers());
+        stats.put("average_group_size", groupCount == 0 ? 0D : memberCount / (double) groupCount);
+        stats.put("syncs_per_minute", metrics.syncsPerMinute());
         stats.put("backups", playerBackups.size());
         return stats;
     }
+
+    /**
+     * bStats 自定义图表，在 bStats 的线程上定期读取
+     */
+    private void registerCharts(cn.kurt6.back.bStats.Metrics bStats) {
+        bStats.addCustomChart(new cn.kurt6.back.bStats.Metrics.SingleLineChart("groups", groups::size));
+        bStats.addCustomChart(new cn.kurt6.back.bStats.Metrics.SingleLineChart("group_members", playerGroups::size));
+        bStats.addCustomChart(new cn.kurt6.back.bStats.Metrics.SingleLineChart("online_members", metrics::getOnlineMembers));
+        bStats.addCustomChart(new cn.kurt6.back.bStats.Metrics.SingleLineChart("syncs_per_minute",
+                () -> (int) Math.round(metrics.syncsPerMinute())));
+        bStats.addCustomChart(new cn.kurt6.back.bStats.Metrics.SimplePie("average_group_size", () -> {
+            int groupCount = groups.size();
+            if (groupCount == 0) return "0";
+            long size = Math.round(playerGroups.size() / (double) groupCount);
+            return size > 10 ? "10+" : String.valueOf(size);
+        }));
+    }
 }
\ No newline at end of file
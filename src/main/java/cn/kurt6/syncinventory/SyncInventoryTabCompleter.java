@@ -56,7 +56,7 @@ public class SyncInventoryTabCompleter implements TabCompleter {
             suggestions.add("leave");
         }
         if (sender.hasPermission("syncinv.admin")) {
-            suggestions.addAll(Arrays.asList("create", "delete", "members", "reload", "language"));
+            suggestions.addAll(Arrays.asList("create", "delete", "members", "reload", "language", "stats", "rollback"));
         }
 
         return suggestions;
@@ -70,10 +70,10 @@ public class SyncInventoryTabCompleter implements TabCompleter {
                 if (sender.hasPermission("syncinv.admin")) {
                     // 管理员可以指定玩家名或直接输入组名
                     suggestions.addAll(getOnlinePlayerNames());
-                    suggestions.addAll(plugin.groupInventories.keySet());
+                    suggestions.addAll(plugin.groups.keySet());
                 } else {
                     // 普通玩家只能看到组名
-                    suggestions.addAll(plugin.groupInventories.keySet());
+                    suggestions.addAll(plugin.groups.keySet());
                 }
                 break;
             case "leave":
@@ -84,9 +84,10 @@ public class SyncInventoryTabCompleter implements TabCompleter {
                 break;
             case "delete":
             case "members":
+            case "rollback":
                 if (sender.hasPermission("syncinv.admin")) {
                     // 返回所有组名
-                    suggestions.addAll(plugin.groupInventories.keySet());
+                    suggestions.addAll(plugin.groups.keySet());
                 }
                 break;
             case "language":
@@ -122,13 +123,16 @@ public class SyncInventoryTabCompleter implements TabCompleter {
             // 检查第二个参数是否是有效的玩家名
             Player target = Bukkit.getPlayer(secondArg);
             if (target != null) {
-                suggestions.addAll(plugin.groupInventories.keySet());
+                suggestions.addAll(plugin.groups.keySet());
             }
         } else if (subCommand.equalsIgnoreCase("members") && sender.hasPermission("syncinv.admin")) {
             // /syncinv members <group> <page>
             suggestions.add("1");
             suggestions.add("2");
             suggestions.add("3");
+        } else if (subCommand.equalsIgnoreCase("rollback") && sender.hasPermission("syncinv.admin")) {
+            // /syncinv rollback <group> <time>
+            suggestions.addAll(Arrays.asList("10m", "1h", "1d"));
         }
 
         return suggestions;
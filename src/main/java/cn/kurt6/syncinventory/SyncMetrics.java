@@ -0,0 +1,328 @@
+package cn.kurt6.syncinventory;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 同步热路径的运行统计
+ * 记录端只累加 LongAdder，不加锁也不分配；全局任务每 5 秒把当前区间归档到环形缓冲，
+ * 查询时合并最近 1/5/15 分钟的区间计算速率和耗时分位数。
+ * 在线成员数在会话绑定和解绑时增减，读取不需要遍历组
+ */
+public class SyncMetrics {
+
+    /**
+     * 归档间隔(tick)
+     */
+    static final long INTERVAL_TICKS = 100L;
+
+    // 15 分钟共 180 个区间
+    private static final int INTERVALS = 180;
+
+    /**
+     * 1/5/15 分钟窗口对应的区间数
+     */
+    static final int[] WINDOWS = {12, 60, 180};
+
+    // 耗时按微秒的 2 的幂分桶，第 i 个桶的上界为 2^i 微秒
+    private static final int BUCKETS = 32;
+
+    /**
+     * 滚动计数器
+     */
+    public final class Counter {
+        private final LongAdder current = new LongAdder();
+        private final long[] history = new long[INTERVALS];
+
+        public void increment() {
+            current.increment();
+        }
+
+        public void add(long amount) {
+            current.add(amount);
+        }
+
+        private void archive(int position) {
+            history[position] = current.sumThenReset();
+        }
+    }
+
+    /**
+     * 滚动耗时分布
+     */
+    public final class Histogram {
+        private final LongAdder[] current = new LongAdder[BUCKETS];
+        private final long[][] history = new long[INTERVALS][BUCKETS];
+
+        private Histogram() {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                current[bucket] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            long micros = Math.max(0L, nanos) / 1000L;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            current[bucket].increment();
+        }
+
+        private void archive(int position) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                history[position][bucket] = current[bucket].sumThenReset();
+            }
+        }
+    }
+
+    private final Counter[] triggers = new Counter[SyncTrigger.values().length];
+    private final Counter membersUpdated = new Counter();
+    private final Counter slotsWritten = new Counter();
+    private final Counter unchangedSyncs = new Counter();
+    private final Counter suppressedEchoes = new Counter();
+    private final Counter captureRetries = new Counter();
+    private final Counter mergedSlots = new Counter();
+    private final Counter relocatedItems = new Counter();
+    private final Counter commits = new Counter();
+    private final Histogram push = new Histogram();
+    private final Histogram fanOut = new Histogram();
+    private final Histogram save = new Histogram();
+    private final Histogram saveDrain = new Histogram();
+
+    private final AtomicInteger onlineMembers = new AtomicInteger();
+
+    private volatile long lastLoadNanos = -1L;
+
+    // 以下只在持有 this 时访问
+    private final long[] intervalNanos = new long[INTERVALS];
+    private int position;
+    private int archived;
+    private long intervalStart = System.nanoTime();
+
+    public SyncMetrics() {
+        for (int i = 0; i < triggers.length; i++) {
+            triggers[i] = new Counter();
+        }
+    }
+
+    /**
+     * 事件请求的同步次数，在合并之前计数
+     */
+    public Counter trigger(SyncTrigger trigger) {
+        return triggers[trigger.ordinal()];
+    }
+
+    /**
+     * 收到分发或拉取而更新背包的成员数
+     */
+    public Counter membersUpdated() {
+        return membersUpdated;
+    }
+
+    /**
+     * 写入成员背包的槽位数
+     */
+    public Counter slotsWritten() {
+        return slotsWritten;
+    }
+
+    /**
+     * 捕获后发现背包没有变化、直接结束的同步次数
+     */
+    public Counter unchangedSyncs() {
+        return unchangedSyncs;
+    }
+
+    /**
+     * 背包仍是插件写入的状态而没有回推的同步次数
+     */
+    public Counter suppressedEchoes() {
+        return suppressedEchoes;
+    }
+
+    /**
+     * 捕获时因并发提交而重试的次数，组背包不再有锁，以此代替锁等待
+     */
+    public Counter captureRetries() {
+        return captureRetries;
+    }
+
+    /**
+     * 同一槽位被多名成员并发改动、按数量合并的槽位数
+     */
+    public Counter mergedSlots() {
+        return mergedSlots;
+    }
+
+    /**
+     * 合并时超出最大堆叠的部分或被占住槽位的玩家物品移到空槽位的次数
+     */
+    public Counter relocatedItems() {
+        return relocatedItems;
+    }
+
+    /**
+     * 捕获到改动并提交了新版本的同步次数
+     */
+    public Counter commits() {
+        return commits;
+    }
+
+    /**
+     * 捕获玩家背包并提交新版本的耗时
+     */
+    public Histogram push() {
+        return push;
+    }
+
+    /**
+     * 从捕获完成到成员背包写入的延迟，包含在成员所在线程上排队的时间
+     */
+    public Histogram fanOut() {
+        return fanOut;
+    }
+
+    /**
+     * IO线程写入一次保存的耗时
+     */
+    public Histogram save() {
+        return save;
+    }
+
+    /**
+     * 保存时在调用线程上取出脏数据的耗时
+     */
+    public Histogram saveDrain() {
+        return saveDrain;
+    }
+
+    void onlineChanged(int delta) {
+        onlineMembers.addAndGet(delta);
+    }
+
+    /**
+     * 当前在线且在组中的玩家数
+     */
+    public int getOnlineMembers() {
+        return onlineMembers.get();
+    }
+
+    /**
+     * 最近 1 分钟的每分钟提交次数
+     */
+    public double syncsPerMinute() {
+        return rate(commits, WINDOWS[0]) * 60D;
+    }
+
+    public void recordLoad(long nanos) {
+        lastLoadNanos = nanos;
+    }
+
+    /**
+     * 最近一次加载的耗时(毫秒)，尚未加载时为 -1
+     */
+    public double getLastLoadMillis() {
+        long nanos = lastLoadNanos;
+        return nanos < 0 ? -1D : nanos / 1_000_000D;
+    }
+
+    /**
+     * 归档当前区间，由全局任务每 INTERVAL_TICKS 调用一次
+     */
+    public synchronized void rotate() {
+        long now = System.nanoTime();
+        intervalNanos[position] = now - intervalStart;
+        intervalStart = now;
+
+        for (Counter counter : triggers) {
+            counter.archive(position);
+        }
+        membersUpdated.archive(position);
+        slotsWritten.archive(position);
+        unchangedSyncs.archive(position);
+        suppressedEchoes.archive(position);
+        captureRetries.archive(position);
+        mergedSlots.archive(position);
+        relocatedItems.archive(position);
+        commits.archive(position);
+        push.archive(position);
+        fanOut.archive(position);
+        save.archive(position);
+        saveDrain.archive(position);
+
+        position = (position + 1) % INTERVALS;
+        archived = Math.min(archived + 1, INTERVALS);
+    }
+
+    /**
+     * 最近 intervals 个区间加上当前区间的每秒次数
+     */
+    public synchronized double rate(Counter counter, int intervals) {
+        int count = Math.min(intervals, archived);
+        long total = counter.current.sum();
+        long nanos = System.nanoTime() - intervalStart;
+        for (int i = 1; i <= count; i++) {
+            int index = (position - i + INTERVALS) % INTERVALS;
+            total += counter.history[index];
+            nanos += intervalNanos[index];
+        }
+        return nanos <= 0 ? 0D : total / (nanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * 最近 intervals 个区间加上当前区间的分位数(毫秒)，按所在桶的上界估计，没有样本时为 -1
+     */
+    public synchronized double percentile(Histogram histogram, int intervals, double quantile) {
+        int count = Math.min(intervals, archived);
+        long[] merged = new long[BUCKETS];
+        long total = 0L;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long sum = histogram.current[bucket].sum();
+            for (int i = 1; i <= count; i++) {
+                sum += histogram.history[(position - i + INTERVALS) % INTERVALS][bucket];
+            }
+            merged[bucket] = sum;
+            total += sum;
+        }
+        if (total == 0L) return -1D;
+
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0L;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += merged[bucket];
+            if (seen >= rank) {
+                return (1L << bucket) / 1000D;
+            }
+        }
+        return (1L << (BUCKETS - 1)) / 1000D;
+    }
+
+    /**
+     * 三个窗口的速率，格式为 "1m | 5m | 15m"
+     */
+    String formatRates(Counter counter) {
+        StringBuilder builder = new StringBuilder();
+        for (int window : WINDOWS) {
+            if (builder.length() > 0) builder.append(" | ");
+            builder.append(String.format(Locale.ROOT, "%.2f", rate(counter, window)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 三个窗口的 p50/p99，格式为 "p50/p99 | p50/p99 | p50/p99"
+     */
+    String formatLatencies(Histogram histogram) {
+        StringBuilder builder = new StringBuilder();
+        for (int window : WINDOWS) {
+            if (builder.length() > 0) builder.append(" | ");
+            double p50 = percentile(histogram, window, 0.5D);
+            if (p50 < 0) {
+                builder.append('-');
+                continue;
+            }
+            builder.append(String.format(Locale.ROOT, "%.2f/%.2f", p50, percentile(histogram, window, 0.99D)));
+        }
+        return builder.toString();
+    }
+}
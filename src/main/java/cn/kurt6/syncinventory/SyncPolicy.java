@@ -0,0 +1,51 @@
+package cn.kurt6.syncinventory;
+
+/**
+ * 单个事件类型的同步策略：是否触发同步、延迟多少tick、以什么优先级执行
+ */
+public final class SyncPolicy {
+
+    /**
+     * 同步优先级，同一tick内到期的组按优先级从高到低刷新
+     */
+    public enum Priority {
+        LOW,
+        NORMAL,
+        HIGH
+    }
+
+    private final SyncTrigger trigger;
+    private final boolean enabled;
+    private final long delay;
+    private final Priority priority;
+
+    public SyncPolicy(SyncTrigger trigger, boolean enabled, long delay, Priority priority) {
+        this.trigger = trigger;
+        this.enabled = enabled;
+        this.delay = Math.max(0L, delay);
+        this.priority = priority;
+    }
+
+    public SyncTrigger getTrigger() {
+        return trigger;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 同步延迟(tick)，推送方向为 0 时在下一次合并刷新中同步，拉取方向为 0 时在事件中立即执行
+     */
+    public long getDelay() {
+        return delay;
+    }
+
+    public boolean isImmediate() {
+        return delay == 0L;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+}
@@ -0,0 +1,62 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * 按事件类型索引的同步策略表，从 config.yml 的 sync-policies 加载
+ */
+public class SyncPolicyRegistry {
+
+    private static final SyncTrigger[] TRIGGERS = SyncTrigger.values();
+
+    // 按 ordinal 索引，重载时整体替换，事件处理中只做一次数组读取
+    private volatile SyncPolicy[] policies;
+
+    public SyncPolicyRegistry() {
+        SyncPolicy[] defaults = new SyncPolicy[TRIGGERS.length];
+        for (SyncTrigger trigger : TRIGGERS) {
+            defaults[trigger.ordinal()] = trigger.defaultPolicy();
+        }
+        this.policies = defaults;
+    }
+
+    public SyncPolicy get(SyncTrigger trigger) {
+        return policies[trigger.ordinal()];
+    }
+
+    /**
+     * 从配置加载策略，未配置的事件使用默认值
+     */
+    public void load(ConfigurationSection section, Logger logger) {
+        SyncPolicy[] loaded = new SyncPolicy[TRIGGERS.length];
+        for (SyncTrigger trigger : TRIGGERS) {
+            SyncPolicy defaults = trigger.defaultPolicy();
+            ConfigurationSection entry = section != null
+                    ? section.getConfigurationSection(trigger.getConfigKey()) : null;
+            if (entry == null) {
+                loaded[trigger.ordinal()] = defaults;
+                continue;
+            }
+
+            SyncPolicy.Priority priority = defaults.getPriority();
+            String priorityName = entry.getString("priority");
+            if (priorityName != null) {
+                try {
+                    priority = SyncPolicy.Priority.valueOf(priorityName.toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    logger.warning("Invalid sync priority '" + priorityName + "' for "
+                            + trigger.getConfigKey() + ", using " + priority);
+                }
+            }
+
+            loaded[trigger.ordinal()] = new SyncPolicy(trigger,
+                    entry.getBoolean("enabled", defaults.isEnabled()),
+                    entry.getLong("delay", defaults.getDelay()),
+                    priority);
+        }
+        this.policies = loaded;
+    }
+}
@@ -0,0 +1,23 @@
+package cn.kurt6.syncinventory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 跨服同步的传输层
+ * 只负责在服务器之间搬运已编码的批次，编码、去重和应用由 CrossServerSync 完成。
+ * 所有方法都只在跨服同步的线程上调用，实现不需要考虑并发
+ */
+public interface SyncTransport extends Closeable {
+
+    /**
+     * 发布本服一个tick内的全部变化
+     */
+    void publish(byte[] batch) throws IOException;
+
+    /**
+     * 取出自上次调用以来其他服务器发布的批次，按各自的发布顺序排列，不包含本服发布的批次
+     */
+    List<byte[]> receive() throws IOException;
+}
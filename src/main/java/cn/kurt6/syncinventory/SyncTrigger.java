@@ -0,0 +1,60 @@
+package cn.kurt6.syncinventory;
+
+/**
+ * 会触发背包同步的事件类型及其默认策略
+ */
+public enum SyncTrigger {
+    // 从组背包拉取到玩家
+    PLAYER_JOIN("player-join", 5L, SyncPolicy.Priority.NORMAL),
+    INVENTORY_OPEN("inventory-open", 1L, SyncPolicy.Priority.NORMAL),
+    PLAYER_RESPAWN("player-respawn", 1L, SyncPolicy.Priority.NORMAL),
+
+    // 从玩家推送到组背包，延迟为0表示在下一次合并刷新中同步
+    ITEM_DAMAGE("item-damage", 0L, SyncPolicy.Priority.HIGH),
+    PROJECTILE_LAUNCH("projectile-launch", 0L, SyncPolicy.Priority.HIGH),
+    BLOCK_PLACE("block-place", 0L, SyncPolicy.Priority.HIGH),
+    ITEM_CONSUME("item-consume", 0L, SyncPolicy.Priority.HIGH),
+    INVENTORY_CLICK("inventory-click", 1L, SyncPolicy.Priority.NORMAL),
+    INVENTORY_CLOSE("inventory-close", 1L, SyncPolicy.Priority.NORMAL),
+    INVENTORY_INTERACT("inventory-interact", 1L, SyncPolicy.Priority.NORMAL),
+    INVENTORY_DRAG("inventory-drag", 1L, SyncPolicy.Priority.NORMAL),
+    CREATIVE_INVENTORY("creative-inventory", 1L, SyncPolicy.Priority.NORMAL),
+    DROP_ITEM("drop-item", 1L, SyncPolicy.Priority.NORMAL),
+    PICKUP_ITEM("pickup-item", 1L, SyncPolicy.Priority.NORMAL),
+    TRADE_SELECT("trade-select", 1L, SyncPolicy.Priority.NORMAL),
+    CRAFT_ITEM("craft-item", 1L, SyncPolicy.Priority.NORMAL),
+    PREPARE_ANVIL("prepare-anvil", 1L, SyncPolicy.Priority.LOW),
+    ANVIL_USE("anvil-use", 1L, SyncPolicy.Priority.NORMAL),
+    BUCKET_EMPTY("bucket-empty", 1L, SyncPolicy.Priority.NORMAL),
+    BUCKET_FILL("bucket-fill", 1L, SyncPolicy.Priority.NORMAL),
+    PLAYER_INTERACT("player-interact", 1L, SyncPolicy.Priority.LOW),
+    INTERACT_ENTITY("interact-entity", 1L, SyncPolicy.Priority.LOW),
+    ENCHANT_ITEM("enchant-item", 1L, SyncPolicy.Priority.NORMAL),
+    PREPARE_ENCHANT("prepare-enchant", 1L, SyncPolicy.Priority.LOW),
+    PREPARE_CRAFT("prepare-craft", 1L, SyncPolicy.Priority.LOW),
+    FURNACE_EXTRACT("furnace-extract", 1L, SyncPolicy.Priority.NORMAL),
+    EXP_CHANGE("exp-change", 1L, SyncPolicy.Priority.LOW),
+    RIPTIDE("riptide", 1L, SyncPolicy.Priority.NORMAL),
+    PLAYER_FISH("player-fish", 1L, SyncPolicy.Priority.NORMAL);
+
+    private final String configKey;
+    private final long defaultDelay;
+    private final SyncPolicy.Priority defaultPriority;
+
+    SyncTrigger(String configKey, long defaultDelay, SyncPolicy.Priority defaultPriority) {
+        this.configKey = configKey;
+        this.defaultDelay = defaultDelay;
+        this.defaultPriority = defaultPriority;
+    }
+
+    /**
+     * config.yml 中 sync-policies 下对应的键名
+     */
+    public String getConfigKey() {
+        return configKey;
+    }
+
+    public SyncPolicy defaultPolicy() {
+        return new SyncPolicy(this, true, defaultDelay, defaultPriority);
+    }
+}
@@ -0,0 +1,108 @@
+package cn.kurt6.syncinventory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 日志写入失败后的重试：失败的批次不丢失，之后按原来的顺序写在新记录之前
+ */
+class ChangeJournalTest {
+
+    private static final Logger LOGGER = Logger.getLogger("ChangeJournalTest");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void failedBatchIsRetriedInOrder() throws IOException {
+        // 父目录不存在时打开日志文件失败
+        Path path = directory.resolve("missing").resolve("journal.bin");
+        AtomicInteger saveRequests = new AtomicInteger();
+        ChangeJournal journal = new ChangeJournal(path, Runnable::run, LOGGER, Long.MAX_VALUE, saveRequests::incrementAndGet);
+        UUID playerId = new UUID(0L, 1L);
+
+        journal.appendJoin(playerId, "first");
+        journal.commit();
+        assertFalse(Files.exists(path));
+        assertEquals(1, saveRequests.get(), "a failed write should request a save");
+
+        Files.createDirectories(path.getParent());
+        journal.appendLeave(playerId);
+        journal.commit();
+        journal.close();
+
+        List<String> replayed = new ArrayList<>();
+        new ChangeJournal(path, Runnable::run, LOGGER, Long.MAX_VALUE, () -> {
+        }).replay(0L, new RecordingReplayer(replayed));
+        assertEquals(List.of("join first", "leave"), replayed);
+    }
+
+    @Test
+    void retryIsCommittedWithoutNewRecords() throws IOException {
+        Path path = directory.resolve("missing").resolve("journal.bin");
+        ChangeJournal journal = new ChangeJournal(path, Runnable::run, LOGGER, Long.MAX_VALUE, () -> {
+        });
+
+        journal.appendCreate("group");
+        journal.commit();
+        Files.createDirectories(path.getParent());
+        journal.commit();
+        journal.close();
+
+        List<String> replayed = new ArrayList<>();
+        new ChangeJournal(path, Runnable::run, LOGGER, Long.MAX_VALUE, () -> {
+        }).replay(0L, new RecordingReplayer(replayed));
+        assertEquals(List.of("create group"), replayed);
+    }
+
+    private static final class RecordingReplayer implements ChangeJournal.Replayer {
+
+        private final List<String> records;
+
+        RecordingReplayer(List<String> records) {
+            this.records = records;
+        }
+
+        @Override
+        public void applySlots(String groupName, SlotDelta delta) {
+            records.add("slots " + groupName);
+        }
+
+        @Override
+        public void clearGroup(String groupName, long version) {
+            records.add("clear " + groupName);
+        }
+
+        @Override
+        public void join(UUID playerId, String groupName) {
+            records.add("join " + groupName);
+        }
+
+        @Override
+        public void leave(UUID playerId) {
+            records.add("leave");
+        }
+
+        @Override
+        public void createGroup(String groupName) {
+            records.add("create " + groupName);
+        }
+
+        @Override
+        public void deleteGroup(String groupName) {
+            records.add("delete " + groupName);
+        }
+    }
+}
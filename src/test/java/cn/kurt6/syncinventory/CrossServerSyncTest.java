@@ -0,0 +1,203 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 两个服务器经进程内传输往返：批次的编码、按来源和组的去重，以及与接收方本地改动的合并
+ * 接收方与插件一样把增量合并到同名组，清空直接清掉
+ */
+class CrossServerSyncTest {
+
+    private static final String GROUP_NAME = "test";
+    private static final Logger LOGGER = Logger.getLogger("CrossServerSyncTest");
+
+    private final Semaphore applied = new Semaphore(0);
+    private final List<ItemStack> discarded = new ArrayList<>();
+    private GroupState copy;
+    private ReplayingTransport transport;
+    private CrossServerSync originSync;
+    private CrossServerSync receiverSync;
+
+    @BeforeEach
+    void setUp() {
+        TestServer.install();
+        copy = GroupState.create(GROUP_NAME);
+        String channel = "test-" + System.nanoTime();
+        transport = new ReplayingTransport(new LoopbackTransport(channel));
+        originSync = new CrossServerSync(transport, "origin", LOGGER, Runnable::run, (origin, groupName, delta) -> {
+            throw new AssertionError("the origin should not receive its own changes");
+        });
+        receiverSync = new CrossServerSync(new LoopbackTransport(channel), "receiver", LOGGER, task -> {
+            task.run();
+            applied.release();
+        }, (origin, groupName, delta) -> {
+            if (!groupName.equals(GROUP_NAME)) return;
+            if (delta == null) {
+                copy.clear();
+            } else {
+                copy.merge(delta, origin.compareTo("receiver") < 0, discarded::add);
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        originSync.close();
+        receiverSync.close();
+    }
+
+    @Test
+    void versionsQueuedOutOfOrderAreAllApplied() {
+        GroupState group = GroupState.create(GROUP_NAME);
+        originSync.publishSlots(group, slot(0, TestItem.of(Material.BREAD, 10), 2L));
+        originSync.publishSlots(group, slot(2, TestItem.unstackable(Material.DIAMOND_SWORD), 1L));
+        exchange(() -> {
+        });
+
+        assertEquals(TestItem.of(Material.BREAD, 10), copy.snapshot().getItem(0));
+        assertEquals(TestItem.unstackable(Material.DIAMOND_SWORD), copy.snapshot().getItem(2));
+    }
+
+    @Test
+    void redeliveredBatchIsDropped() {
+        GroupState group = GroupState.create(GROUP_NAME);
+        originSync.publishSlots(group, slot(2, TestItem.unstackable(Material.DIAMOND_SWORD), 1L));
+        exchange(() -> {
+        });
+
+        // 接收方本地清掉槽位 2，之后重复投递的第一批不能再把它写回来
+        commit(copy, 2, null);
+        originSync.publishSlots(group, slot(3, TestItem.of(Material.BREAD, 10), 2L));
+        exchange(() -> transport.redeliver(0));
+
+        assertEquals(TestItem.of(Material.BREAD, 10), copy.snapshot().getItem(3));
+        assertNull(copy.snapshot().getItem(2));
+    }
+
+    @Test
+    void recreatedGroupIsReceivedFromVersionOne() {
+        GroupState group = GroupState.create(GROUP_NAME);
+        originSync.publishSlots(group, slot(3, TestItem.of(Material.BREAD, 10), 5L));
+        exchange(() -> {
+        });
+        commit(copy, 3, null);
+
+        // 来源删除后重建同名组，版本号从头开始
+        GroupState recreated = GroupState.create(GROUP_NAME);
+        originSync.publishSlots(recreated, slot(1, TestItem.unstackable(Material.DIAMOND_SWORD), 1L));
+        exchange(() -> transport.redeliver(0));
+
+        assertEquals(TestItem.unstackable(Material.DIAMOND_SWORD), copy.snapshot().getItem(1));
+        assertNull(copy.snapshot().getItem(3), "a redelivered batch of the deleted group should be dropped");
+    }
+
+    @Test
+    void remoteChangeIsMergedWithLocalChange() {
+        ItemStack[] contents = new ItemStack[GroupState.SLOT_COUNT];
+        contents[0] = TestItem.of(Material.BREAD, 10);
+        GroupState group = GroupState.load(GROUP_NAME, 0L, contents);
+        copy = GroupState.load(GROUP_NAME, 0L, contents);
+
+        originSync.publishSlots(group, commit(group, 0, TestItem.of(Material.BREAD, 9)));
+        commit(copy, 0, TestItem.of(Material.BREAD, 7));
+        exchange(() -> {
+        });
+
+        assertEquals(TestItem.of(Material.BREAD, 6), copy.snapshot().getItem(0));
+        assertTrue(discarded.isEmpty());
+    }
+
+    @Test
+    void clearIsApplied() {
+        commit(copy, 4, TestItem.of(Material.COBBLESTONE, 32));
+        originSync.publishClear(GroupState.create(GROUP_NAME), 1L);
+        exchange(() -> {
+        });
+
+        assertNull(copy.snapshot().getItem(4));
+    }
+
+    private static SlotDelta slot(int slot, ItemStack item, long version) {
+        return new SlotDelta(new int[]{slot}, new ItemStack[]{item}, null, new ItemStack[1], 1, version);
+    }
+
+    private static SlotDelta commit(GroupState state, int slot, ItemStack item) {
+        ItemStack[] contents = state.snapshot().toArray();
+        contents[slot] = item;
+        return state.restore(contents);
+    }
+
+    /**
+     * 来源发布一批，执行 between 后由接收方取回，等待取回的变化写入组背包
+     */
+    private void exchange(Runnable between) {
+        originSync.tick();
+        await(transport.publishes, "publish");
+        between.run();
+        receiverSync.tick();
+        await(applied, "apply");
+    }
+
+    private static void await(Semaphore semaphore, String step) {
+        try {
+            assertTrue(semaphore.tryAcquire(5, TimeUnit.SECONDS), "timed out waiting for " + step);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("interrupted waiting for " + step);
+        }
+    }
+
+    /**
+     * 记录发布过的批次，可以把其中任意一批再投递一次，模拟传输层的重复投递
+     */
+    private static final class ReplayingTransport implements SyncTransport {
+
+        final SyncTransport delegate;
+        final List<byte[]> published = new ArrayList<>();
+        final Semaphore publishes = new Semaphore(0);
+
+        ReplayingTransport(SyncTransport delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void publish(byte[] batch) throws IOException {
+            delegate.publish(batch);
+            published.add(batch);
+            publishes.release();
+        }
+
+        void redeliver(int index) {
+            try {
+                delegate.publish(published.get(index));
+            } catch (IOException e) {
+                throw new AssertionError("redelivery failed: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public List<byte[]> receive() throws IOException {
+            return delegate.receive();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
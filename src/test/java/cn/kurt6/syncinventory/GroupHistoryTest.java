@@ -0,0 +1,82 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 组历史的关键帧与增量回溯：关键帧取增量提交时的版本，不受之后提交的影响
+ */
+class GroupHistoryTest {
+
+    private static final String GROUP_NAME = "test";
+    private static final Logger LOGGER = Logger.getLogger("GroupHistoryTest");
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setUp() {
+        TestServer.install();
+    }
+
+    @Test
+    void keyframeMatchesTheWrittenVersion() throws IOException {
+        GroupHistory history = new GroupHistory(directory, Runnable::run, LOGGER, 1, 0L);
+        GroupState group = GroupState.create(GROUP_NAME);
+        SlotDelta first = commit(group, 0, TestItem.of(Material.BREAD, 10));
+        SlotDelta second = commit(group, 1, TestItem.unstackable(Material.DIAMOND_SWORD));
+
+        // 写入第一批时组背包已经是第二批之后的版本，没有更早的历史，回溯只能从第一批的关键帧开始
+        history.slotsWritten(GROUP_NAME, first, 200L);
+        history.slotsWritten(GROUP_NAME, second, 300L);
+
+        ItemStack[] between = reconstruct(history, 250L);
+        assertEquals(TestItem.of(Material.BREAD, 10), between[0]);
+        assertNull(between[1], "a later commit should not leak into an earlier keyframe");
+
+        ItemStack[] latest = reconstruct(history, 300L);
+        assertEquals(TestItem.of(Material.BREAD, 10), latest[0]);
+        assertEquals(TestItem.unstackable(Material.DIAMOND_SWORD), latest[1]);
+        history.close();
+    }
+
+    @Test
+    void reopenedHistoryAppendsAfterExistingRecords() throws IOException {
+        GroupState group = GroupState.create(GROUP_NAME);
+        GroupHistory history = new GroupHistory(directory, Runnable::run, LOGGER, 32, 0L);
+        history.groupCreated(GROUP_NAME, 100L);
+        history.slotsWritten(GROUP_NAME, commit(group, 0, TestItem.of(Material.BREAD, 10)), 200L);
+        history.close();
+
+        GroupHistory reopened = new GroupHistory(directory, Runnable::run, LOGGER, 32, 0L);
+        reopened.slotsWritten(GROUP_NAME, commit(group, 0, TestItem.of(Material.BREAD, 4)), 300L);
+
+        assertEquals(TestItem.of(Material.BREAD, 10), reconstruct(reopened, 250L)[0]);
+        assertEquals(TestItem.of(Material.BREAD, 4), reconstruct(reopened, 300L)[0]);
+        assertNull(reconstruct(reopened, 50L));
+        reopened.close();
+    }
+
+    private static SlotDelta commit(GroupState state, int slot, ItemStack item) {
+        ItemStack[] contents = state.snapshot().toArray();
+        contents[slot] = item;
+        return state.restore(contents);
+    }
+
+    private static ItemStack[] reconstruct(GroupHistory history, long timestamp) {
+        AtomicReference<ItemStack[]> result = new AtomicReference<>();
+        history.reconstruct(GROUP_NAME, timestamp, result::set);
+        return result.get();
+    }
+}
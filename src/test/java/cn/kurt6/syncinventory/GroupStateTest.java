@@ -0,0 +1,314 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * GroupState 的逐槽位合并：capture 中两名成员在看到对方的改动之前各自修改背包，依次提交；
+ * merge 中两台服务器各自提交后交换增量，双方的结果应当一致。
+ * 成员背包用数组表示，捕获结果中的写回槽位由测试自己写入，与插件在玩家线程上的处理一致
+ */
+class GroupStateTest {
+
+    private final SyncMetrics metrics = new SyncMetrics();
+    private GroupState group;
+
+    @BeforeEach
+    void setUp() {
+        group = GroupState.create("test");
+    }
+
+    @Test
+    void editWithoutConcurrentChangeIsCommittedAsIs() {
+        Member first = join();
+
+        first.inventory[3] = TestItem.of(Material.STONE, 5);
+        CaptureResult result = first.push();
+
+        assertEquals(1, result.getDelta().size());
+        assertEquals(TestItem.of(Material.STONE, 5), group.snapshot().getItem(3));
+        assertEquals(0L, result.getWriteBackSlots());
+        assertTrue(first.push().getDelta().isEmpty(), "an unchanged inventory should not be pushed again");
+    }
+
+    @Test
+    void concurrentConsumeIsMerged() {
+        load(0, TestItem.of(Material.BREAD, 10));
+        Member first = join();
+        Member second = join();
+
+        first.inventory[0] = TestItem.of(Material.BREAD, 9);
+        first.push();
+        second.inventory[0] = TestItem.of(Material.BREAD, 9);
+        CaptureResult result = second.push();
+
+        assertEquals(TestItem.of(Material.BREAD, 8), group.snapshot().getItem(0));
+        assertEquals(1, result.getMergedSlots());
+        assertEquals(1L, result.getWriteBackSlots());
+        assertEquals(TestItem.of(Material.BREAD, 8), second.inventory[0]);
+    }
+
+    @Test
+    void mergeOverflowMovesToFreeSlot() {
+        load(0, TestItem.of(Material.STONE, 60));
+        Member first = join();
+        Member second = join();
+
+        first.inventory[0] = TestItem.of(Material.STONE, 64);
+        first.push();
+        second.inventory[0] = TestItem.of(Material.STONE, 64);
+        CaptureResult result = second.push();
+
+        GroupSnapshot snapshot = group.snapshot();
+        assertEquals(TestItem.of(Material.STONE, 64), snapshot.getItem(0));
+        assertEquals(TestItem.of(Material.STONE, 4), snapshot.getItem(1));
+        assertEquals(1, result.getRelocatedItems());
+        assertEquals(0, result.getMergedSlots(), "the pushing member already holds a full stack");
+        assertEquals(1L << 1, result.getWriteBackSlots());
+        assertEquals(TestItem.of(Material.STONE, 4), second.inventory[1]);
+    }
+
+    @Test
+    void mergeOverflowIsDeferredWhenNoSlotIsFree() {
+        load(0, TestItem.of(Material.STONE, 60));
+        for (int slot = 1; slot < GroupState.SLOT_COUNT; slot++) {
+            load(slot, TestItem.of(Material.DIRT, 1));
+        }
+        Member first = join();
+        Member second = join();
+
+        first.inventory[0] = TestItem.of(Material.STONE, 64);
+        first.push();
+        long version = group.snapshot().getVersion();
+        second.inventory[0] = TestItem.of(Material.STONE, 64);
+        CaptureResult result = second.push();
+
+        assertTrue(result.getDelta().isEmpty());
+        assertEquals(version, group.snapshot().getVersion());
+        assertEquals(1L, result.getDeferredSlots());
+        assertEquals(0L, result.getWriteBackSlots(), "the member should keep their own stack");
+        assertEquals(1L, second.push().getDeferredSlots(), "the slot should be retried on the next push");
+    }
+
+    @Test
+    void differentItemsInSameSlotAreBothKept() {
+        load(0, TestItem.of(Material.BREAD, 10));
+        Member first = join();
+        Member second = join();
+
+        first.inventory[5] = TestItem.unstackable(Material.DIAMOND_SWORD);
+        first.push();
+        second.inventory[5] = TestItem.unstackable(Material.SHIELD);
+        CaptureResult result = second.push();
+
+        GroupSnapshot snapshot = group.snapshot();
+        assertEquals(TestItem.unstackable(Material.DIAMOND_SWORD), snapshot.getItem(5));
+        assertEquals(TestItem.unstackable(Material.SHIELD), snapshot.getItem(1));
+        assertEquals(TestItem.of(Material.BREAD, 10), snapshot.getItem(0));
+        assertEquals(1, result.getRelocatedItems());
+        assertEquals((1L << 5) | (1L << 1), result.getWriteBackSlots());
+        assertEquals(TestItem.unstackable(Material.DIAMOND_SWORD), second.inventory[5]);
+        assertEquals(TestItem.unstackable(Material.SHIELD), second.inventory[1]);
+    }
+
+    @Test
+    void removalRacingWithAdditionKeepsTheAddition() {
+        load(0, TestItem.of(Material.BREAD, 10));
+        Member first = join();
+        Member second = join();
+
+        first.inventory[0] = TestItem.of(Material.BREAD, 15);
+        first.push();
+        second.inventory[0] = null;
+        second.push();
+
+        assertEquals(TestItem.of(Material.BREAD, 5), group.snapshot().getItem(0));
+    }
+
+    @Test
+    void deferredSlotIsMergedOnceASlotIsFree() {
+        load(0, TestItem.of(Material.BREAD, 10));
+        for (int slot = 1; slot < GroupState.SLOT_COUNT; slot++) {
+            load(slot, TestItem.of(Material.DIRT, 1));
+        }
+        Member first = join();
+        Member second = join();
+
+        first.inventory[5] = TestItem.unstackable(Material.DIAMOND_SWORD);
+        first.push();
+        second.inventory[5] = TestItem.unstackable(Material.SHIELD);
+        assertEquals(1L << 5, second.push().getDeferredSlots());
+
+        // 腾出槽位的这次提交中该槽位本身是改动，下一次提交时才是空槽位
+        second.inventory[9] = null;
+        assertEquals(1L << 5, second.push().getDeferredSlots());
+        assertNull(group.snapshot().getItem(9));
+        CaptureResult result = second.push();
+
+        assertEquals(0L, result.getDeferredSlots());
+        assertEquals(TestItem.unstackable(Material.DIAMOND_SWORD), group.snapshot().getItem(5));
+        assertEquals(TestItem.unstackable(Material.SHIELD), group.snapshot().getItem(9));
+        assertEquals(1, countOf(group.snapshot(), Material.SHIELD));
+        assertEquals(TestItem.unstackable(Material.SHIELD), second.inventory[9]);
+    }
+
+    @Test
+    void remoteDeltaReplacesSlotUnchangedLocally() {
+        load(0, TestItem.of(Material.BREAD, 10));
+        GroupState origin = copyOf(group);
+
+        SlotDelta applied = group.merge(commit(origin, 0, TestItem.of(Material.BREAD, 3)), false, item -> {
+        });
+
+        assertEquals(1, applied.size());
+        assertEquals(TestItem.of(Material.BREAD, 3), group.snapshot().getItem(0));
+    }
+
+    @Test
+    void concurrentConsumeOnTwoServersConverges() {
+        load(0, TestItem.of(Material.BREAD, 10));
+        GroupState other = copyOf(group);
+
+        exchange(commit(group, 0, TestItem.of(Material.BREAD, 9)), other,
+                commit(other, 0, TestItem.of(Material.BREAD, 9)));
+
+        assertEquals(TestItem.of(Material.BREAD, 8), group.snapshot().getItem(0));
+        assertSameContents(group, other);
+    }
+
+    @Test
+    void remoteMergeOverflowMovesToFreeSlotOnBothServers() {
+        load(0, TestItem.of(Material.STONE, 60));
+        GroupState other = copyOf(group);
+
+        exchange(commit(group, 0, TestItem.of(Material.STONE, 64)), other,
+                commit(other, 0, TestItem.of(Material.STONE, 64)));
+
+        assertEquals(TestItem.of(Material.STONE, 64), group.snapshot().getItem(0));
+        assertEquals(TestItem.of(Material.STONE, 4), group.snapshot().getItem(1));
+        assertSameContents(group, other);
+    }
+
+    @Test
+    void differentItemsOnTwoServersConverge() {
+        load(0, TestItem.of(Material.BREAD, 10));
+        GroupState other = copyOf(group);
+
+        exchange(commit(group, 5, TestItem.unstackable(Material.DIAMOND_SWORD)), other,
+                commit(other, 5, TestItem.unstackable(Material.SHIELD)));
+
+        assertEquals(TestItem.unstackable(Material.DIAMOND_SWORD), group.snapshot().getItem(5));
+        assertEquals(TestItem.unstackable(Material.SHIELD), group.snapshot().getItem(1));
+        assertSameContents(group, other);
+    }
+
+    @Test
+    void remoteItemWithoutFreeSlotIsDiscarded() {
+        for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+            load(slot, TestItem.of(Material.DIRT, 1));
+        }
+        GroupState origin = copyOf(group);
+        commit(group, 5, TestItem.unstackable(Material.DIAMOND_SWORD));
+        List<ItemStack> discarded = new ArrayList<>();
+
+        group.merge(commit(origin, 5, TestItem.unstackable(Material.SHIELD)), false, discarded::add);
+
+        assertEquals(TestItem.unstackable(Material.DIAMOND_SWORD), group.snapshot().getItem(5));
+        assertIterableEquals(List.of(TestItem.unstackable(Material.SHIELD)), discarded);
+    }
+
+    private static int countOf(GroupSnapshot snapshot, Material type) {
+        int count = 0;
+        for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+            ItemStack item = snapshot.getItem(slot);
+            if (item != null && item.getType() == type) {
+                count += item.getAmount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 当前组（服务器 ID 较小的一方）与 other 交换各自提交的增量
+     */
+    private void exchange(SlotDelta fromGroup, GroupState other, SlotDelta fromOther) {
+        group.merge(fromOther, false, item -> {
+            throw new AssertionError("discarded " + item);
+        });
+        other.merge(fromGroup, true, item -> {
+            throw new AssertionError("discarded " + item);
+        });
+    }
+
+    /**
+     * 在 state 上把一个槽位改为 item 并提交，返回带变化前物品的增量
+     */
+    private static SlotDelta commit(GroupState state, int slot, ItemStack item) {
+        ItemStack[] contents = state.snapshot().toArray();
+        contents[slot] = item;
+        return state.restore(contents);
+    }
+
+    private static GroupState copyOf(GroupState state) {
+        return GroupState.load(state.getName(), 0L, state.snapshot().toArray());
+    }
+
+    private static void assertSameContents(GroupState expected, GroupState actual) {
+        for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+            assertEquals(expected.snapshot().getItem(slot), actual.snapshot().getItem(slot), "slot " + slot);
+        }
+    }
+
+    private void load(int slot, ItemStack item) {
+        ItemStack[] contents = group.snapshot().toArray();
+        contents[slot] = item;
+        group = GroupState.load(group.getName(), 0L, contents);
+    }
+
+    private Member join() {
+        return new Member(new PlayerSyncSession(null, group, metrics));
+    }
+
+    /**
+     * 一名成员：拉取组背包时的内容和会话记录
+     */
+    private final class Member {
+
+        final PlayerSyncSession session;
+        final ItemStack[] inventory;
+
+        Member(PlayerSyncSession session) {
+            this.session = session;
+            GroupSnapshot snapshot = group.snapshot();
+            this.inventory = new ItemStack[GroupState.SLOT_COUNT];
+            for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+                ItemStack item = snapshot.getItem(slot);
+                inventory[slot] = item == null ? null : item.clone();
+            }
+            session.resetBaseline(snapshot);
+        }
+
+        CaptureResult push() {
+            session.observe(slot -> inventory[slot]);
+            CaptureResult result = group.capture(session, metrics);
+            GroupSnapshot snapshot = group.snapshot();
+            for (int slot = 0; slot < GroupState.SLOT_COUNT; slot++) {
+                if ((result.getWriteBackSlots() & (1L << slot)) != 0L) {
+                    ItemStack item = snapshot.getItem(slot);
+                    inventory[slot] = item == null ? null : item.clone();
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 组文件的写入、重新打开后的读取，以及槽位校验和
+ */
+class MappedGroupStoreTest {
+
+    private static final Logger LOGGER = Logger.getLogger("MappedGroupStoreTest");
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setUp() {
+        TestServer.install();
+    }
+
+    @Test
+    void writtenGroupIsReadBackAfterReopening() throws IOException {
+        write(snapshot(3L, TestItem.of(Material.STONE, 5), TestItem.unstackable(Material.SHIELD)));
+
+        try (MappedGroupStore store = MappedGroupStore.open(directory, LOGGER)) {
+            assertTrue(store.isPersisted("test", 3L));
+            GroupSnapshot read = store.read("test");
+            assertEquals(3L, read.getVersion());
+            assertEquals(TestItem.of(Material.STONE, 5), read.getItem(0));
+            assertEquals(TestItem.unstackable(Material.SHIELD), read.getItem(1));
+            assertNull(read.getItem(2));
+        }
+    }
+
+    @Test
+    void corruptedSlotIsReadAsEmpty() throws IOException {
+        write(snapshot(1L, TestItem.of(Material.STONE, 5), TestItem.unstackable(Material.SHIELD)));
+        Path file = directory.resolve("test.dat");
+        byte[] bytes = Files.readAllBytes(file);
+        int offset = indexOf(bytes, TestItem.of(Material.STONE, 5).encode());
+        assertTrue(offset > 0);
+        bytes[offset] ^= 1;
+        Files.write(file, bytes);
+
+        try (MappedGroupStore store = MappedGroupStore.open(directory, LOGGER)) {
+            GroupSnapshot read = store.read("test");
+            assertNull(read.getItem(0), "a slot failing its checksum should not be deserialized");
+            assertEquals(TestItem.unstackable(Material.SHIELD), read.getItem(1));
+        }
+    }
+
+    private void write(GroupSnapshot snapshot) throws IOException {
+        try (MappedGroupStore store = MappedGroupStore.open(directory, LOGGER)) {
+            store.write(Map.of("test", snapshot));
+        }
+    }
+
+    private static GroupSnapshot snapshot(long version, ItemStack first, ItemStack second) {
+        ItemStack[] items = new ItemStack[GroupState.SLOT_COUNT];
+        items[0] = first;
+        items[1] = second;
+        return new GroupSnapshot(version, items);
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            boolean found = true;
+            for (int j = 0; j < part.length && found; j++) {
+                found = bytes[i + j] == part[j];
+            }
+            if (found) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,95 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 不依赖服务端实现的物品：类型、数量和最大堆叠数，同类型即视为同种物品
+ */
+final class TestItem extends ItemStack {
+
+    private final Material type;
+    private final int maxStackSize;
+    private int amount;
+
+    TestItem(Material type, int amount, int maxStackSize) {
+        this.type = type;
+        this.amount = amount;
+        this.maxStackSize = maxStackSize;
+    }
+
+    static TestItem of(Material type, int amount) {
+        return new TestItem(type, amount, 64);
+    }
+
+    /**
+     * 不可堆叠的物品，如武器和盾牌
+     */
+    static TestItem unstackable(Material type) {
+        return new TestItem(type, 1, 1);
+    }
+
+    @Override
+    public Material getType() {
+        return type;
+    }
+
+    @Override
+    public int getAmount() {
+        return amount;
+    }
+
+    @Override
+    public void setAmount(int amount) {
+        this.amount = amount;
+    }
+
+    @Override
+    public int getMaxStackSize() {
+        return maxStackSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return amount <= 0;
+    }
+
+    @Override
+    public boolean isSimilar(ItemStack stack) {
+        return stack instanceof TestItem other && type == other.type;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof TestItem other && type == other.type && amount == other.amount;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + amount;
+    }
+
+    @Override
+    public TestItem clone() {
+        return new TestItem(type, amount, maxStackSize);
+    }
+
+    /**
+     * 序列化为类型、数量和最大堆叠数，供 TestServer 替代服务端的物品序列化
+     */
+    byte[] encode() {
+        return (type.name() + ':' + amount + ':' + maxStackSize).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static TestItem decode(byte[] data) {
+        String[] fields = new String(data, StandardCharsets.UTF_8).split(":");
+        return new TestItem(Material.valueOf(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+    }
+
+    @Override
+    public String toString() {
+        return "TestItem{" + type + " x " + amount + "}";
+    }
+}
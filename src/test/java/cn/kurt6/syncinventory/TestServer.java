@@ -0,0 +1,54 @@
+package cn.kurt6.syncinventory;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.logging.Logger;
+
+/**
+ * 只提供物品序列化的服务端，ItemStack#serializeAsBytes 和 deserializeBytes 交给 TestItem
+ */
+final class TestServer {
+
+    private TestServer() {
+    }
+
+    static synchronized void install() {
+        if (Bukkit.getServer() != null) return;
+
+        Logger logger = Logger.getLogger("SyncInventoryTest");
+        UnsafeValues unsafe = proxy(UnsafeValues.class, (proxy, method, args) -> switch (method.getName()) {
+            case "serializeItem" -> ((TestItem) args[0]).encode();
+            case "deserializeItem" -> TestItem.decode((byte[]) args[0]);
+            default -> unsupported(method);
+        });
+        Server server = proxy(Server.class, (proxy, method, args) -> switch (method.getName()) {
+            case "getUnsafe" -> unsafe;
+            case "getLogger" -> logger;
+            case "getName", "getVersion", "getBukkitVersion" -> "Test";
+            default -> unsupported(method);
+        });
+        Bukkit.setServer(server);
+    }
+
+    /**
+     * 除 Object 的方法外只响应 handler 处理的方法
+     */
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(TestServer.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> type.getSimpleName();
+                    default -> handler.invoke(proxy, method, args);
+                }));
+    }
+
+    private static Object unsupported(Method method) {
+        throw new UnsupportedOperationException(method.getName());
+    }
+}